@@ -57,6 +57,12 @@ if os.path.exists(default_model_path):
 
 # Функция для поиска дизайна по ID (можно адаптировать под ваши нужды)
 def find_design_file(design_id):
+    # Дизайны, выгруженные API через /api/upload-design, лежат под своим ID — проверяем их первыми,
+    # без обращения к MongoDB
+    direct_match = os.path.join(DESIGNS_DIR, f"{design_id}.jpg")
+    if os.path.exists(direct_match):
+        return direct_match
+
     # Попытка найти дизайн в MongoDB
     try:
         # Преобразуем строковый ID в ObjectId
@@ -71,11 +77,6 @@ def find_design_file(design_id):
     except Exception as e:
         logger.error(f"Ошибка при поиске дизайна в MongoDB: {str(e)}")
 
-    # Прямой поиск по имени файла, если MongoDB не помогла
-    direct_match = os.path.join(DESIGNS_DIR, f"{design_id}.jpg")
-    if os.path.exists(direct_match):
-        return direct_match
-
     # Если все методы не сработали, берем первый доступный файл
     design_files = glob.glob(os.path.join(DESIGNS_DIR, "*.jpg"))
     if design_files:
@@ -244,6 +245,22 @@ async def get_designs():
             designs.append({
                 "id": design_id,
                 "file_name": file_name,
-                "path": f"/designs/{file_name}"
+                "path": f"/designs/{file_name}",
+                "size": os.path.getsize(file_path)
             })
-    return {"designs": designs}
\ No newline at end of file
+    return {"designs": designs}
+
+
+@app.delete("/api/designs/{design_id}")
+async def delete_design(design_id: str):
+    """Удаление дизайна, выгруженного API через /api/upload-design"""
+    if os.path.basename(design_id) != design_id or design_id.startswith("."):
+        raise HTTPException(status_code=400, detail="Некорректный ID дизайна")
+
+    design_path = os.path.join(DESIGNS_DIR, f"{design_id}.jpg")
+    if not os.path.exists(design_path):
+        return {"status": "not_found", "message": f"Дизайн {design_id} не найден"}
+
+    os.remove(design_path)
+    logger.info(f"Дизайн {design_id} удалён")
+    return {"status": "success", "message": f"Дизайн {design_id} удалён"}
\ No newline at end of file
@@ -2,8 +2,10 @@ package com.example.nail_design_api;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class NailDesignApiApplication {
 	public static void main(String[] args) {
 		SpringApplication.run(NailDesignApiApplication.class, args);
@@ -0,0 +1,217 @@
+package com.example.nail_design_api.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Допуск запросов по классам приоритета. У каждого класса свой лимит параллельных запросов
+// и время ожидания в очереди; при общей перегрузке первыми отбрасываются низкоприоритетные классы
+// (порог shed-at — доля от общего лимита, после которой класс получает 503)
+@Component
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+    public enum RequestClass {
+        CATALOG(64, 500, 1.0),
+        FAVORITES(32, 300, 0.9),
+        UPLOADS(8, 1000, 0.8),
+        TRYON(16, 200, 0.6);
+
+        private final int defaultMaxConcurrent;
+        private final long defaultQueueTimeoutMs;
+        private final double defaultShedAt;
+
+        RequestClass(int defaultMaxConcurrent, long defaultQueueTimeoutMs, double defaultShedAt) {
+            this.defaultMaxConcurrent = defaultMaxConcurrent;
+            this.defaultQueueTimeoutMs = defaultQueueTimeoutMs;
+            this.defaultShedAt = defaultShedAt;
+        }
+    }
+
+    private final boolean enabled;
+    private final int maxConcurrent;
+    private final String retryAfterSeconds;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Map<RequestClass, Lane> lanes = new EnumMap<>(RequestClass.class);
+
+    public AdmissionControlFilter(Environment env, MeterRegistry meterRegistry) {
+        this.enabled = env.getProperty("admission.enabled", Boolean.class, true);
+        this.maxConcurrent = env.getProperty("admission.max-concurrent", Integer.class, 100);
+        this.retryAfterSeconds = env.getProperty("admission.retry-after-seconds", "5");
+
+        for (RequestClass requestClass : RequestClass.values()) {
+            String prefix = "admission." + requestClass.name().toLowerCase() + ".";
+            Lane lane = new Lane(
+                    env.getProperty(prefix + "max-concurrent", Integer.class, requestClass.defaultMaxConcurrent),
+                    env.getProperty(prefix + "queue-timeout-ms", Long.class, requestClass.defaultQueueTimeoutMs),
+                    env.getProperty(prefix + "shed-at", Double.class, requestClass.defaultShedAt));
+            String tag = requestClass.name().toLowerCase();
+            meterRegistry.gauge("admission.inflight", Tags.of("class", tag),
+                    lane.active, AtomicInteger::get);
+            meterRegistry.gauge("admission.queued", Tags.of("class", tag),
+                    lane.queued, AtomicInteger::get);
+            lane.shed = Counter.builder("admission.rejected").tag("class", tag).tag("reason", "shed")
+                    .register(meterRegistry);
+            lane.timedOut = Counter.builder("admission.rejected").tag("class", tag).tag("reason", "queue-timeout")
+                    .register(meterRegistry);
+            lane.queueWait = Timer.builder("admission.queue.wait").tag("class", tag)
+                    .register(meterRegistry);
+            lanes.put(requestClass, lane);
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        return !enabled || !(path.startsWith("/api/") || path.startsWith("/uploads/"));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        RequestClass requestClass = classify(request);
+        Lane lane = lanes.get(requestClass);
+
+        if (inFlight.get() >= maxConcurrent * lane.shedAt) {
+            lane.shed.increment();
+            reject(response, requestClass);
+            return;
+        }
+
+        boolean acquired;
+        long started = System.nanoTime();
+        lane.queued.incrementAndGet();
+        try {
+            acquired = lane.permits.tryAcquire(lane.queueTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        } finally {
+            lane.queued.decrementAndGet();
+            lane.queueWait.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+        if (!acquired) {
+            lane.timedOut.increment();
+            reject(response, requestClass);
+            return;
+        }
+
+        lane.active.incrementAndGet();
+        inFlight.incrementAndGet();
+        AtomicBoolean released = new AtomicBoolean();
+        boolean async = false;
+        try {
+            filterChain.doFilter(request, response);
+            // для DeferredResult и потоковых ответов место освобождается по завершении асинхронной обработки
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new ReleaseListener(lane, released));
+                async = true;
+            }
+        } finally {
+            if (!async) {
+                release(lane, released);
+            }
+        }
+    }
+
+    static RequestClass classify(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        if (path.startsWith("/api/tryon")) {
+            return RequestClass.TRYON;
+        }
+        if (path.startsWith("/api/auth/favorites")) {
+            return RequestClass.FAVORITES;
+        }
+        if (path.startsWith("/api/master/") && !HttpMethod.GET.matches(request.getMethod())) {
+            return RequestClass.UPLOADS;
+        }
+        return RequestClass.CATALOG;
+    }
+
+    private void release(Lane lane, AtomicBoolean released) {
+        if (released.compareAndSet(false, true)) {
+            inFlight.decrementAndGet();
+            lane.active.decrementAndGet();
+            lane.permits.release();
+        }
+    }
+
+    private void reject(HttpServletResponse response, RequestClass requestClass) throws IOException {
+        logger.debug("Запрос класса " + requestClass + " отклонён: перегрузка");
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, retryAfterSeconds);
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write("{\"error\":\"Сервис перегружен, повторите запрос позже\",\"timestamp\":\""
+                + Instant.now() + "\"}");
+    }
+
+    private final class ReleaseListener implements AsyncListener {
+
+        private final Lane lane;
+        private final AtomicBoolean released;
+
+        ReleaseListener(Lane lane, AtomicBoolean released) {
+            this.lane = lane;
+            this.released = released;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release(lane, released);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+
+    private static final class Lane {
+
+        private final Semaphore permits;
+        private final long queueTimeoutMs;
+        private final double shedAt;
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger queued = new AtomicInteger();
+        private Counter shed;
+        private Counter timedOut;
+        private Timer queueWait;
+
+        Lane(int maxConcurrent, long queueTimeoutMs, double shedAt) {
+            this.permits = new Semaphore(maxConcurrent);
+            this.queueTimeoutMs = queueTimeoutMs;
+            this.shedAt = shedAt;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.nail_design_api.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+
+@Configuration
+public class MetricsConfig {
+
+    // Включает @Timed на сервисах: таймер app.service с тегами class и method
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry meterRegistry) {
+        return new TimedAspect(meterRegistry);
+    }
+
+    // Заменяет конвертер Jackson из автоконфигурации Boot, сохраняя его ObjectMapper
+    @Bean
+    public MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter(ObjectMapper objectMapper) {
+        return new TimedJacksonConverter(objectMapper);
+    }
+
+    // Сериализует JSON в буфер и записывает время в этап ser: так сериализация не смешивается
+    // с отправкой по сети и успевает попасть в Server-Timing до фиксации ответа
+    static final class TimedJacksonConverter extends MappingJackson2HttpMessageConverter {
+
+        TimedJacksonConverter(ObjectMapper objectMapper) {
+            super(objectMapper);
+        }
+
+        @Override
+        protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+                throws IOException, HttpMessageNotWritableException {
+            if (RequestTiming.current() == null) {
+                super.writeInternal(object, type, outputMessage);
+                return;
+            }
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+            long started = System.nanoTime();
+            super.writeInternal(object, type, new HttpOutputMessage() {
+                @Override
+                public OutputStream getBody() {
+                    return buffer;
+                }
+
+                @Override
+                public HttpHeaders getHeaders() {
+                    return outputMessage.getHeaders();
+                }
+            });
+            RequestTiming.record(RequestTiming.Stage.SERIALIZATION, started);
+            buffer.writeTo(outputMessage.getBody());
+        }
+    }
+}
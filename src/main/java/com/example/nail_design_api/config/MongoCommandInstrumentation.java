@@ -0,0 +1,314 @@
+package com.example.nail_design_api.config;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+// Гистограммы времени команд MongoDB с тегами collection, command и repository (метод репозитория,
+// из которого пришла команда) и кольцевой буфер медленных запросов с формой фильтра и кратким планом
+// выполнения (GET /actuator/mongoslowqueries)
+@Component
+@Endpoint(id = "mongoslowqueries")
+public class MongoCommandInstrumentation implements CommandListener {
+
+    private static final Logger logger = Logger.getLogger(MongoCommandInstrumentation.class.getName());
+
+    private static final Set<String> EXPLAINABLE = Set.of("find", "aggregate", "count", "distinct",
+            "update", "delete", "findAndModify");
+    private static final String NO_REPOSITORY = "none";
+
+    // метод репозитория, выполняющийся в текущем потоке; синхронный драйвер вызывает слушателя в нём же
+    private static final ThreadLocal<String> CURRENT_REPOSITORY = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> EXPLAINING = new ThreadLocal<>();
+
+    private final MeterRegistry meterRegistry;
+    private final ObjectProvider<MongoTemplate> mongoTemplate;
+    private final boolean enabled;
+    private final long slowThresholdNanos;
+    private final double sampleRate;
+    private final int bufferSize;
+    private final boolean explain;
+
+    private final ConcurrentHashMap<Integer, Started> started = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ArrayDeque<SlowQuery> slowQueries = new ArrayDeque<>();
+    private final ExecutorService explainExecutor;
+
+    public MongoCommandInstrumentation(MeterRegistry meterRegistry, ObjectProvider<MongoTemplate> mongoTemplate,
+                                       Environment env) {
+        this.meterRegistry = meterRegistry;
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = env.getProperty("mongo.instrumentation.enabled", Boolean.class, true);
+        this.slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(
+                env.getProperty("mongo.instrumentation.slow-threshold-ms", Long.class, 100L));
+        this.sampleRate = env.getProperty("mongo.instrumentation.slow-sample-rate", Double.class, 0.1);
+        this.bufferSize = env.getProperty("mongo.instrumentation.slow-buffer-size", Integer.class, 100);
+        this.explain = env.getProperty("mongo.instrumentation.explain", Boolean.class, true);
+        this.explainExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(16), r -> {
+                    Thread thread = new Thread(r, "mongo-explain");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    @PreDestroy
+    public void stop() {
+        explainExecutor.shutdownNow();
+    }
+
+    // Совет для прокси репозиториев: помечает поток именем вызываемого метода
+    public static MethodInterceptor repositoryInterceptor(String repository) {
+        return invocation -> {
+            String previous = CURRENT_REPOSITORY.get();
+            CURRENT_REPOSITORY.set(repository + "." + invocation.getMethod().getName());
+            try {
+                return invocation.proceed();
+            } finally {
+                if (previous == null) {
+                    CURRENT_REPOSITORY.remove();
+                } else {
+                    CURRENT_REPOSITORY.set(previous);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        if (!enabled || Boolean.TRUE.equals(EXPLAINING.get())) {
+            return;
+        }
+        String repository = CURRENT_REPOSITORY.get();
+        BsonDocument command = event.getCommand();
+        // документ команды доступен только внутри этого вызова, поэтому копия делается сразу,
+        // но лишь для выбранной доли команд
+        BsonDocument sample = EXPLAINABLE.contains(event.getCommandName())
+                && ThreadLocalRandom.current().nextDouble() < sampleRate ? command.clone() : null;
+        started.put(event.getRequestId(), new Started(System.nanoTime(), event.getDatabaseName(),
+                collection(event.getCommandName(), command), event.getCommandName(),
+                repository != null ? repository : NO_REPOSITORY, sample));
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        finish(event.getRequestId(), "success");
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        finish(event.getRequestId(), "error");
+    }
+
+    private void finish(int requestId, String outcome) {
+        Started start = started.remove(requestId);
+        if (start == null) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start.nanos();
+        timer(start, outcome).record(elapsed, TimeUnit.NANOSECONDS);
+        // синхронный драйвер завершает команду в потоке запроса
+        RequestTiming timing = RequestTiming.current();
+        if (timing != null) {
+            timing.add(RequestTiming.Stage.DB, elapsed);
+        }
+
+        if (elapsed >= slowThresholdNanos && start.command() != null) {
+            SlowQuery slow = new SlowQuery(Instant.now(), start.collection(), start.commandName(), start.repository(),
+                    TimeUnit.NANOSECONDS.toMillis(elapsed), outcome, shape(filter(start.commandName(), start.command())));
+            synchronized (slowQueries) {
+                if (slowQueries.size() >= bufferSize) {
+                    slowQueries.removeFirst();
+                }
+                slowQueries.addLast(slow);
+            }
+            if (explain) {
+                explainExecutor.execute(() -> slow.plan = explain(start));
+            }
+        }
+    }
+
+    private Timer timer(Started start, String outcome) {
+        String key = start.collection() + "|" + start.commandName() + "|" + start.repository() + "|" + outcome;
+        return timers.computeIfAbsent(key, k -> Timer.builder("mongo.command")
+                .description("Время выполнения команд MongoDB")
+                .tag("collection", start.collection())
+                .tag("command", start.commandName())
+                .tag("repository", start.repository())
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+    @ReadOperation
+    public List<Map<String, Object>> slowQueries() {
+        List<SlowQuery> snapshot;
+        synchronized (slowQueries) {
+            snapshot = new ArrayList<>(slowQueries);
+        }
+        Collections.reverse(snapshot);
+        return snapshot.stream().map(SlowQuery::toMap).toList();
+    }
+
+    @DeleteOperation
+    public void clear() {
+        synchronized (slowQueries) {
+            slowQueries.clear();
+        }
+    }
+
+    private String explain(Started start) {
+        MongoTemplate template = mongoTemplate.getIfAvailable();
+        if (template == null) {
+            return null;
+        }
+        BsonDocument command = new BsonDocument();
+        start.command().forEach((key, value) -> {
+            if (!key.startsWith("$") && !key.equals("lsid") && !key.equals("txnNumber")) {
+                command.put(key, value);
+            }
+        });
+        EXPLAINING.set(true);
+        try {
+            Document result = template.getMongoDatabaseFactory().getMongoDatabase(start.database())
+                    .runCommand(new BsonDocument("explain", command).append("verbosity", new BsonString("queryPlanner")));
+            Document planner = result.get("queryPlanner", Document.class);
+            return planner != null ? summarize(planner.get("winningPlan", Document.class)) : null;
+        } catch (RuntimeException e) {
+            logger.fine("explain для медленного запроса не выполнен: " + e.getMessage());
+            return "explain failed: " + e.getMessage();
+        } finally {
+            EXPLAINING.remove();
+        }
+    }
+
+    // Цепочка стадий от корня к листу: FETCH <- IXSCAN createdBy_1 или COLLSCAN
+    static String summarize(Document plan) {
+        StringBuilder summary = new StringBuilder();
+        Document stage = plan;
+        while (stage != null) {
+            if (stage.containsKey("queryPlan")) {
+                stage = stage.get("queryPlan", Document.class);
+                continue;
+            }
+            if (summary.length() > 0) {
+                summary.append(" <- ");
+            }
+            summary.append(stage.getString("stage"));
+            if (stage.getString("indexName") != null) {
+                summary.append(' ').append(stage.getString("indexName"));
+            }
+            Object child = stage.containsKey("inputStage") ? stage.get("inputStage") : stage.get("inputStages");
+            if (child instanceof List<?> children && !children.isEmpty()) {
+                summary.append(" (").append(children.size()).append(" inputs)");
+                child = children.get(0);
+            }
+            stage = child instanceof Document next ? next : null;
+        }
+        return summary.toString();
+    }
+
+    private static String collection(String commandName, BsonDocument command) {
+        BsonValue value = commandName.equals("getMore") ? command.get("collection") : command.get(commandName);
+        return value != null && value.isString() ? value.asString().getValue() : "none";
+    }
+
+    private static BsonValue filter(String commandName, BsonDocument command) {
+        return switch (commandName) {
+            case "find" -> command.get("filter");
+            case "count", "distinct", "findAndModify" -> command.get("query");
+            case "aggregate" -> command.get("pipeline");
+            case "update" -> first(command.get("updates"), "q");
+            case "delete" -> first(command.get("deletes"), "q");
+            default -> null;
+        };
+    }
+
+    private static BsonValue first(BsonValue statements, String field) {
+        return statements != null && statements.isArray() && !statements.asArray().isEmpty()
+                && statements.asArray().get(0).isDocument() ? statements.asArray().get(0).asDocument().get(field) : null;
+    }
+
+    // Форма запроса: ключи и операторы сохраняются, значения заменяются на "?"
+    static String shape(BsonValue value) {
+        return value == null ? "{}" : shapeOf(value).toString();
+    }
+
+    private static BsonValue shapeOf(BsonValue value) {
+        if (value.isDocument()) {
+            BsonDocument shaped = new BsonDocument();
+            value.asDocument().forEach((key, nested) -> shaped.put(key, shapeOf(nested)));
+            return shaped;
+        }
+        if (value.isArray()) {
+            BsonArray array = value.asArray();
+            // у $in и подобных важна не длина списка, а его наличие
+            boolean structural = array.stream().anyMatch(v -> v.isDocument() || v.isArray());
+            return structural ? new BsonArray(array.stream().map(MongoCommandInstrumentation::shapeOf).toList())
+                    : new BsonArray(List.of(new BsonString("?")));
+        }
+        return new BsonString("?");
+    }
+
+    private record Started(long nanos, String database, String collection, String commandName,
+                           String repository, BsonDocument command) {
+    }
+
+    private static final class SlowQuery {
+
+        private final Instant at;
+        private final String collection;
+        private final String command;
+        private final String repository;
+        private final long durationMs;
+        private final String outcome;
+        private final String shape;
+        private volatile String plan;
+
+        SlowQuery(Instant at, String collection, String command, String repository,
+                  long durationMs, String outcome, String shape) {
+            this.at = at;
+            this.collection = collection;
+            this.command = command;
+            this.repository = repository;
+            this.durationMs = durationMs;
+            this.outcome = outcome;
+            this.shape = shape;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("at", at.toString());
+            map.put("collection", collection);
+            map.put("command", command);
+            map.put("repository", repository);
+            map.put("durationMs", durationMs);
+            map.put("outcome", outcome);
+            map.put("filter", shape);
+            map.put("plan", plan);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.nail_design_api.config;
+
+import com.example.nail_design_api.model.Design;
+import com.example.nail_design_api.model.User;
+import org.bson.Document;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+// Индексы для горячих запросов объявлены здесь, а не через @Indexed: автосоздание индексов
+// в Spring Data выключено, а здесь видно, какие индексы нужны, какие не удалось построить
+// и какими индексами в базе никто не пользуется (GET /actuator/mongoindexes)
+@Profile("!test")
+@Component
+@Endpoint(id = "mongoindexes")
+public class MongoIndexManager implements CommandLineRunner {
+
+    private static final Logger logger = Logger.getLogger(MongoIndexManager.class.getName());
+
+    private static final List<IndexSpec> INDEXES = List.of(
+            new IndexSpec(User.class, "username_unique", true, "username"),
+            new IndexSpec(User.class, "favoriteDesignIds", false, "favoriteDesignIds"),
+            new IndexSpec(Design.class, "createdBy", false, "createdBy"),
+            new IndexSpec(Design.class, "colors", false, "colors"),
+            new IndexSpec(Design.class, "designType", false, "designType"),
+            new IndexSpec(Design.class, "occasion", false, "occasion"),
+            new IndexSpec(Design.class, "length", false, "length"));
+
+    private final MongoTemplate mongoTemplate;
+    private final Map<String, String> failures = new LinkedHashMap<>();
+
+    public MongoIndexManager(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public void run(String... args) {
+        ensureIndexes();
+    }
+
+    @WriteOperation
+    public synchronized Map<String, Object> ensureIndexes() {
+        failures.clear();
+        for (IndexSpec spec : INDEXES) {
+            String collection = mongoTemplate.getCollectionName(spec.entity());
+            try {
+                IndexOperations indexOps = mongoTemplate.indexOps(spec.entity());
+                // уже построенные индексы не трогаем, чтобы перезапуск не сканировал коллекции
+                if (indexOps.getIndexInfo().stream().anyMatch(spec::matches)) {
+                    continue;
+                }
+                if (spec.unique() && hasDuplicates(spec)) {
+                    throw new IllegalStateException("в коллекции есть повторяющиеся значения " + String.join(", ", spec.fields()));
+                }
+                indexOps.ensureIndex(spec.toIndex());
+            } catch (RuntimeException e) {
+                failures.put(collection + "." + spec.name(), e.getMessage());
+                logger.severe("Не удалось создать индекс " + spec.name() + " в " + collection + ": " + e.getMessage());
+            }
+        }
+        logger.info("Индексы MongoDB проверены: объявлено " + INDEXES.size() + ", ошибок " + failures.size());
+        return report();
+    }
+
+    @ReadOperation
+    public synchronized Map<String, Object> report() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        Set<Class<?>> entities = new LinkedHashSet<>();
+        INDEXES.forEach(spec -> entities.add(spec.entity()));
+
+        for (Class<?> entity : entities) {
+            String collection = mongoTemplate.getCollectionName(entity);
+            List<IndexInfo> existing = mongoTemplate.indexOps(entity).getIndexInfo();
+            Map<String, Long> usage = indexUsage(collection);
+
+            List<Map<String, Object>> declared = new ArrayList<>();
+            Set<String> matched = new HashSet<>();
+            for (IndexSpec spec : INDEXES) {
+                if (spec.entity() != entity) {
+                    continue;
+                }
+                Map<String, Object> status = new LinkedHashMap<>();
+                status.put("name", spec.name());
+                status.put("fields", spec.fields());
+                status.put("unique", spec.unique());
+                Optional<IndexInfo> found = existing.stream().filter(spec::matches).findFirst();
+                if (found.isPresent()) {
+                    matched.add(found.get().getName());
+                    status.put("status", "present");
+                    status.put("ops", usage.get(found.get().getName()));
+                } else {
+                    status.put("status", "missing");
+                    String failure = failures.get(collection + "." + spec.name());
+                    if (failure != null) {
+                        status.put("error", failure);
+                    }
+                }
+                declared.add(status);
+            }
+
+            // индексы в базе, которые не объявлены здесь, и объявленные, которыми никто не пользовался
+            List<Map<String, Object>> unused = new ArrayList<>();
+            for (IndexInfo info : existing) {
+                boolean undeclared = !matched.contains(info.getName()) && !info.getName().equals("_id_");
+                Long ops = usage.get(info.getName());
+                if (undeclared || (ops != null && ops == 0 && !info.getName().equals("_id_"))) {
+                    Map<String, Object> entry = new LinkedHashMap<>();
+                    entry.put("name", info.getName());
+                    entry.put("fields", info.getIndexFields().stream().map(IndexField::getKey).toList());
+                    entry.put("declared", !undeclared);
+                    entry.put("ops", ops);
+                    unused.add(entry);
+                }
+            }
+
+            Map<String, Object> collectionReport = new LinkedHashMap<>();
+            collectionReport.put("declared", declared);
+            collectionReport.put("unused", unused);
+            report.put(collection, collectionReport);
+        }
+        return report;
+    }
+
+    private boolean hasDuplicates(IndexSpec spec) {
+        Aggregation duplicates = newAggregation(
+                group(spec.fields().toArray(String[]::new)).count().as("count"),
+                match(where("count").gt(1)),
+                limit(1));
+        return !mongoTemplate.aggregate(duplicates, spec.entity(), Document.class).getMappedResults().isEmpty();
+    }
+
+    // Счётчики $indexStats сбрасываются при перезапуске mongod, поэтому "не используется" — с момента since
+    private Map<String, Long> indexUsage(String collection) {
+        Map<String, Long> usage = new HashMap<>();
+        try {
+            for (Document stats : mongoTemplate.getCollection(collection)
+                    .aggregate(List.of(new Document("$indexStats", new Document())))) {
+                Document accesses = stats.get("accesses", Document.class);
+                usage.put(stats.getString("name"), accesses != null ? ((Number) accesses.get("ops")).longValue() : null);
+            }
+        } catch (RuntimeException e) {
+            logger.warning("Статистика использования индексов " + collection + " недоступна: " + e.getMessage());
+        }
+        return usage;
+    }
+
+    private record IndexSpec(Class<?> entity, String name, boolean unique, String... fieldNames) {
+
+        List<String> fields() {
+            return List.of(fieldNames);
+        }
+
+        Index toIndex() {
+            Index index = new Index().named(name);
+            for (String field : fieldNames) {
+                index.on(field, Sort.Direction.ASC);
+            }
+            return unique ? index.unique() : index;
+        }
+
+        boolean matches(IndexInfo info) {
+            return info.getIndexFields().stream().map(IndexField::getKey).toList().equals(fields())
+                    && (!unique || info.isUnique());
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.nail_design_api.config;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+
+@Configuration
+public class MongoInstrumentationConfig {
+
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoCommandListenerCustomizer(MongoCommandInstrumentation instrumentation) {
+        return settings -> settings.addCommandListener(instrumentation);
+    }
+
+    // Каждый прокси репозитория получает совет, который сообщает слушателю команд имя вызванного метода
+    @Bean
+    public static BeanPostProcessor repositoryInstrumentationPostProcessor() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+                if (bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> factoryBean) {
+                    factoryBean.addRepositoryFactoryCustomizer(factory -> factory.addRepositoryProxyPostProcessor(
+                            (proxyFactory, information) -> proxyFactory.addAdvice(
+                                    MongoCommandInstrumentation.repositoryInterceptor(
+                                            information.getRepositoryInterface().getSimpleName()))));
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.nail_design_api.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Время этапов одного запроса: проверка токена, команды MongoDB, вызов ML сервиса и сериализация JSON.
+// ServerTimingFilter привязывает объект к потоку запроса; колбэки из других потоков (ответ ML клиента)
+// берут его из атрибута запроса. Этапы могут пересекаться: auth включает проверку пользователя в базе
+public final class RequestTiming {
+
+    public enum Stage {
+        AUTH("auth"),
+        DB("db"),
+        ML("ml"),
+        SERIALIZATION("ser");
+
+        private final String metric;
+
+        Stage(String metric) {
+            this.metric = metric;
+        }
+    }
+
+    public static final String ATTRIBUTE = RequestTiming.class.getName();
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final ThreadLocal<RequestTiming> CURRENT = new ThreadLocal<>();
+
+    private final long startNanos = System.nanoTime();
+    private final AtomicLongArray nanos = new AtomicLongArray(STAGES.length);
+    private final AtomicIntegerArray counts = new AtomicIntegerArray(STAGES.length);
+
+    public static RequestTiming current() {
+        return CURRENT.get();
+    }
+
+    public static RequestTiming of(HttpServletRequest request) {
+        return (RequestTiming) request.getAttribute(ATTRIBUTE);
+    }
+
+    // Добавляет этап, начавшийся в startNanos, если поток сейчас обслуживает запрос
+    public static void record(Stage stage, long startNanos) {
+        RequestTiming timing = CURRENT.get();
+        if (timing != null) {
+            timing.add(stage, System.nanoTime() - startNanos);
+        }
+    }
+
+    static RequestTiming bind(RequestTiming timing) {
+        RequestTiming previous = CURRENT.get();
+        CURRENT.set(timing);
+        return previous;
+    }
+
+    static void restore(RequestTiming previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    public void add(Stage stage, long elapsedNanos) {
+        nanos.addAndGet(stage.ordinal(), elapsedNanos);
+        counts.incrementAndGet(stage.ordinal());
+    }
+
+    public long elapsedNanos(Stage stage) {
+        return nanos.get(stage.ordinal());
+    }
+
+    public int count(Stage stage) {
+        return counts.get(stage.ordinal());
+    }
+
+    public long totalNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    // auth;dur=0.4, db;dur=5.1;desc="3", total;dur=12.3 — этапы, которых не было, пропускаются
+    String header() {
+        StringBuilder header = new StringBuilder(96);
+        for (Stage stage : STAGES) {
+            int count = count(stage);
+            if (count == 0) {
+                continue;
+            }
+            header.append(stage.metric).append(";dur=").append(millis(elapsedNanos(stage)));
+            if (count > 1) {
+                header.append(";desc=\"").append(count).append('"');
+            }
+            header.append(", ");
+        }
+        return header.append("total;dur=").append(millis(totalNanos())).toString();
+    }
+
+    // total=12.3ms auth=0.4ms db=5.1ms/3 ml=0.0ms/0 ser=0.2ms/1
+    String summary() {
+        StringBuilder summary = new StringBuilder(96).append("total=").append(millis(totalNanos())).append("ms");
+        for (Stage stage : STAGES) {
+            summary.append(' ').append(stage.metric).append('=').append(millis(elapsedNanos(stage)))
+                    .append("ms/").append(count(stage));
+        }
+        return summary.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
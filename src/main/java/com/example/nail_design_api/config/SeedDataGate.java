@@ -0,0 +1,45 @@
+package com.example.nail_design_api.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.time.Instant;
+
+// Каталог отвечает 503 только пока идёт самое первое заполнение пустой базы.
+// Если данные уже есть (обычный перезапуск), ворота открываются сразу, а заполнение идёт в фоне
+@Component
+public class SeedDataGate implements HandlerInterceptor {
+
+    private volatile boolean pending;
+
+    public void markPending() {
+        pending = true;
+    }
+
+    public void markReady() {
+        pending = false;
+    }
+
+    public boolean isReady() {
+        return !pending;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!pending) {
+            return true;
+        }
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, "2");
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write("{\"error\":\"Каталог дизайнов ещё загружается, повторите запрос позже\",\"timestamp\":\""
+                + Instant.now() + "\"}");
+        return false;
+    }
+}
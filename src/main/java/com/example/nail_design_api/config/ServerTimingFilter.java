@@ -0,0 +1,133 @@
+package com.example.nail_design_api.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+
+// Разбивка времени запроса по этапам для клиентов: заголовок Server-Timing (server-timing.header-enabled)
+// и выборочный журнал доступа (server-timing.access-log-sample-rate). Стоит раньше Spring Security,
+// чтобы в запрос попадала проверка токена
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class ServerTimingFilter extends OncePerRequestFilter {
+
+    public static final String HEADER = "Server-Timing";
+
+    private static final Logger accessLog = Logger.getLogger(ServerTimingFilter.class.getName());
+
+    private final boolean headerEnabled;
+    private final double sampleRate;
+
+    public ServerTimingFilter(Environment env) {
+        this.headerEnabled = env.getProperty("server-timing.header-enabled", Boolean.class, false);
+        this.sampleRate = env.getProperty("server-timing.access-log-sample-rate", Double.class, 0.0);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !headerEnabled && sampleRate <= 0;
+    }
+
+    // DeferredResult и потоковые ответы дописываются при асинхронной диспетчеризации в другом потоке
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        RequestTiming timing = RequestTiming.of(request);
+        HttpServletResponse target = response;
+        if (timing == null) {
+            timing = new RequestTiming();
+            request.setAttribute(RequestTiming.ATTRIBUTE, timing);
+            if (headerEnabled) {
+                target = new TimingResponse(response, timing);
+            }
+        }
+
+        RequestTiming previous = RequestTiming.bind(timing);
+        try {
+            filterChain.doFilter(request, target);
+        } finally {
+            RequestTiming.restore(previous);
+            if (!request.isAsyncStarted()) {
+                // небольшой ответ ещё в буфере: заголовок обновляется с учётом сериализации
+                if (headerEnabled && !response.isCommitted()) {
+                    response.setHeader(HEADER, timing.header());
+                }
+                if (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+                    accessLog.info(request.getMethod() + " " + request.getRequestURI() + " "
+                            + response.getStatus() + " " + timing.summary());
+                }
+            }
+        }
+    }
+
+    // Ставит заголовок перед тем, как тело начнёт уходить клиенту: после фиксации ответа его уже не добавить
+    private static final class TimingResponse extends HttpServletResponseWrapper {
+
+        private final RequestTiming timing;
+
+        TimingResponse(HttpServletResponse response, RequestTiming timing) {
+            super(response);
+            this.timing = timing;
+        }
+
+        private void beforeCommit() {
+            if (!isCommitted()) {
+                setHeader(HEADER, timing.header());
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            beforeCommit();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            beforeCommit();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            beforeCommit();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            beforeCommit();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            beforeCommit();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            beforeCommit();
+            super.sendRedirect(location);
+        }
+    }
+}
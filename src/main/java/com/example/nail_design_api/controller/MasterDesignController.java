@@ -1,10 +1,19 @@
 package com.example.nail_design_api.controller;
 
+import com.example.nail_design_api.dto.DesignBulkDto;
 import com.example.nail_design_api.dto.DesignDTO;
+import com.example.nail_design_api.model.MasterStats;
 import com.example.nail_design_api.model.User;
+import com.example.nail_design_api.model.UserSummary;
+import com.example.nail_design_api.service.DesignImportService;
+import com.example.nail_design_api.service.DesignMutationException;
 import com.example.nail_design_api.service.DesignService;
+import com.example.nail_design_api.service.MasterStatsService;
 import com.example.nail_design_api.service.UserService;
+import com.mongodb.bulk.BulkWriteResult;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -20,12 +29,20 @@ import java.util.Map;
 @RequestMapping("/api/master/designs")
 public class MasterDesignController {
 
+    private static final int MAX_BULK_SIZE = 1000;
+
     @Autowired
     private DesignService designService;
 
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private MasterStatsService masterStatsService;
+
+    @Autowired
+    private DesignImportService designImportService;
+
     @PostMapping
     public ResponseEntity<?> createDesign(
             @RequestParam("name") String name,
@@ -41,7 +58,7 @@ public class MasterDesignController {
             Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
             String username = authentication.getName();
 
-            User user = userService.findByUsername(username);
+            UserSummary user = userService.findSummaryByUsername(username);
             if (user == null) {
                 return ResponseEntity.status(404).body(createErrorResponse("Пользователь не найден"));
             }
@@ -84,8 +101,7 @@ public class MasterDesignController {
                     user.getSalonName()
             );
 
-            user.getCreatedDesignIds().add(design.getId());
-            userService.saveUser(user);
+            userService.addCreatedDesign(username, design.getId());
 
             return ResponseEntity.ok(design);
 
@@ -96,13 +112,47 @@ public class MasterDesignController {
         }
     }
 
+    // Тело запроса — сам ZIP архив (не multipart), поэтому он читается потоком без ограничения multipart в 10MB
+    @PostMapping(value = "/import", consumes = {"application/zip", "application/x-zip-compressed", "application/octet-stream"})
+    public ResponseEntity<?> importDesigns(HttpServletRequest request) {
+        try {
+            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+            String username = authentication.getName();
+
+            UserSummary user = userService.findSummaryByUsername(username);
+            if (user == null) {
+                return ResponseEntity.status(404).body(createErrorResponse("Пользователь не найден"));
+            }
+
+            if (user.getRole() != User.UserRole.MASTER) {
+                return ResponseEntity.status(403).body(createErrorResponse("Доступ запрещен. Только мастера могут создавать дизайны."));
+            }
+
+            DesignImportService.ImportResult result = designImportService.importZip(request.getInputStream(), user);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("imported", result.getDesignIds().size());
+            response.put("failed", result.getErrors().size());
+            response.put("designIds", result.getDesignIds());
+            response.put("errors", result.getErrors());
+            return ResponseEntity.ok(response);
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(createErrorResponse(e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.badRequest().body(createErrorResponse("Ошибка чтения архива: " + e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(createErrorResponse("Ошибка импорта дизайнов: " + e.getMessage()));
+        }
+    }
+
     @GetMapping("/my")
     public ResponseEntity<?> getMyDesigns() {
         try {
             Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
             String username = authentication.getName();
 
-            User user = userService.findByUsername(username);
+            UserSummary user = userService.findSummaryByUsername(username);
             if (user == null) {
                 return ResponseEntity.status(404).body(createErrorResponse("Пользователь не найден"));
             }
@@ -125,7 +175,7 @@ public class MasterDesignController {
             Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
             String username = authentication.getName();
 
-            User user = userService.findByUsername(username);
+            UserSummary user = userService.findSummaryByUsername(username);
             if (user == null) {
                 return ResponseEntity.status(404).body(createErrorResponse("Пользователь не найден"));
             }
@@ -143,7 +193,7 @@ public class MasterDesignController {
                 return ResponseEntity.status(403).body(createErrorResponse("Вы можете просматривать только свои дизайны"));
             }
 
-            return ResponseEntity.ok(design);
+            return ResponseEntity.ok().eTag(String.valueOf(design.getVersion())).body(design);
 
         } catch (Exception e) {
             return ResponseEntity.status(500).body(createErrorResponse("Ошибка получения дизайна: " + e.getMessage()));
@@ -153,13 +203,14 @@ public class MasterDesignController {
     @PutMapping("/{id}")
     public ResponseEntity<?> updateDesign(
             @PathVariable String id,
-            @RequestBody DesignDTO designDTO) {
+            @RequestBody DesignDTO designDTO,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
 
         try {
             Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
             String username = authentication.getName();
 
-            User user = userService.findByUsername(username);
+            UserSummary user = userService.findSummaryByUsername(username);
             if (user == null) {
                 return ResponseEntity.status(404).body(createErrorResponse("Пользователь не найден"));
             }
@@ -168,15 +219,6 @@ public class MasterDesignController {
                 return ResponseEntity.status(403).body(createErrorResponse("Доступ запрещен. Только мастера могут редактировать дизайны."));
             }
 
-            DesignDTO existingDesign = designService.getDesignById(id);
-            if (existingDesign == null) {
-                return ResponseEntity.status(404).body(createErrorResponse("Дизайн не найден"));
-            }
-
-            if (!username.equals(existingDesign.getCreatedBy())) {
-                return ResponseEntity.status(403).body(createErrorResponse("Вы можете редактировать только свои дизайны"));
-            }
-
             if (designDTO.getName() == null || designDTO.getName().trim().isEmpty()) {
                 return ResponseEntity.badRequest().body(createErrorResponse("Название дизайна обязательно"));
             }
@@ -186,26 +228,31 @@ public class MasterDesignController {
             }
 
             designDTO.setId(id);
-            designDTO.setCreatedBy(username);
-            designDTO.setSalonName(user.getSalonName());
-            designDTO.setImagePath(existingDesign.getImagePath());
-            designDTO.setThumbnailPath(existingDesign.getThumbnailPath());
+            if (designDTO.getVersion() == null) {
+                designDTO.setVersion(parseIfMatch(ifMatch));
+            }
 
-            DesignDTO updatedDesign = designService.updateDesign(designDTO);
-            return ResponseEntity.ok(updatedDesign);
+            DesignDTO updatedDesign = designService.updateDesign(username, designDTO);
+            return ResponseEntity.ok().eTag(String.valueOf(updatedDesign.getVersion())).body(updatedDesign);
 
+        } catch (DesignMutationException e) {
+            return ResponseEntity.status(e.getStatus()).body(createErrorResponse(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(createErrorResponse(e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.status(500).body(createErrorResponse("Ошибка обновления дизайна: " + e.getMessage()));
         }
     }
 
     @DeleteMapping("/{id}")
-    public ResponseEntity<?> deleteDesign(@PathVariable String id) {
+    public ResponseEntity<?> deleteDesign(
+            @PathVariable String id,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
         try {
             Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
             String username = authentication.getName();
 
-            User user = userService.findByUsername(username);
+            UserSummary user = userService.findSummaryByUsername(username);
             if (user == null) {
                 return ResponseEntity.status(404).body(createErrorResponse("Пользователь не найден"));
             }
@@ -214,28 +261,94 @@ public class MasterDesignController {
                 return ResponseEntity.status(403).body(createErrorResponse("Доступ запрещен. Только мастера могут удалять дизайны."));
             }
 
-            DesignDTO existingDesign = designService.getDesignById(id);
-            if (existingDesign == null) {
-                return ResponseEntity.status(404).body(createErrorResponse("Дизайн не найден"));
+            designService.deleteDesign(username, id, parseIfMatch(ifMatch));
+
+            Map<String, String> response = new HashMap<>();
+            response.put("message", "Дизайн успешно удален");
+            response.put("deletedId", id);
+
+            return ResponseEntity.ok(response);
+
+        } catch (DesignMutationException e) {
+            return ResponseEntity.status(e.getStatus()).body(createErrorResponse(e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(createErrorResponse(e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(createErrorResponse("Ошибка удаления дизайна: " + e.getMessage()));
+        }
+    }
+
+    @PatchMapping("/bulk")
+    public ResponseEntity<?> bulkUpdateDesigns(@RequestBody DesignBulkDto request) {
+        try {
+            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+            String username = authentication.getName();
+
+            UserSummary user = userService.findSummaryByUsername(username);
+            if (user == null) {
+                return ResponseEntity.status(404).body(createErrorResponse("Пользователь не найден"));
             }
 
-            if (!username.equals(existingDesign.getCreatedBy())) {
-                return ResponseEntity.status(403).body(createErrorResponse("Вы можете удалять только свои дизайны"));
+            if (user.getRole() != User.UserRole.MASTER) {
+                return ResponseEntity.status(403).body(createErrorResponse("Доступ запрещен. Только мастера могут редактировать дизайны."));
             }
 
-            designService.deleteDesign(id);
+            List<DesignBulkDto.Item> items = request.toItems();
+            if (items.isEmpty()) {
+                return ResponseEntity.badRequest().body(createErrorResponse("Не указаны дизайны для изменения"));
+            }
+            if (items.size() > MAX_BULK_SIZE) {
+                return ResponseEntity.badRequest().body(createErrorResponse("За один запрос можно изменить не больше " + MAX_BULK_SIZE + " дизайнов"));
+            }
 
-            user.getCreatedDesignIds().remove(id);
-            userService.saveUser(user);
+            BulkWriteResult result = designService.bulkUpdate(username, items);
 
-            Map<String, String> response = new HashMap<>();
-            response.put("message", "Дизайн успешно удален");
-            response.put("deletedId", id);
+            Map<String, Object> response = new HashMap<>();
+            response.put("requested", items.size());
+            response.put("matched", result.getMatchedCount());
+            response.put("modified", result.getModifiedCount());
+            return ResponseEntity.ok(response);
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(createErrorResponse(e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(createErrorResponse("Ошибка массового обновления дизайнов: " + e.getMessage()));
+        }
+    }
 
+    @DeleteMapping("/bulk")
+    public ResponseEntity<?> bulkDeleteDesigns(@RequestBody DesignBulkDto request) {
+        try {
+            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+            String username = authentication.getName();
+
+            UserSummary user = userService.findSummaryByUsername(username);
+            if (user == null) {
+                return ResponseEntity.status(404).body(createErrorResponse("Пользователь не найден"));
+            }
+
+            if (user.getRole() != User.UserRole.MASTER) {
+                return ResponseEntity.status(403).body(createErrorResponse("Доступ запрещен. Только мастера могут удалять дизайны."));
+            }
+
+            List<String> ids = request.getIds();
+            if (ids == null || ids.isEmpty()) {
+                return ResponseEntity.badRequest().body(createErrorResponse("Не указаны дизайны для удаления"));
+            }
+            if (ids.size() > MAX_BULK_SIZE) {
+                return ResponseEntity.badRequest().body(createErrorResponse("За один запрос можно удалить не больше " + MAX_BULK_SIZE + " дизайнов"));
+            }
+
+            List<String> deleted = designService.bulkDelete(username, ids);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("message", "Удалено дизайнов: " + deleted.size());
+            response.put("deletedIds", deleted);
+            response.put("notFound", ids.stream().filter(id -> !deleted.contains(id)).toList());
             return ResponseEntity.ok(response);
 
         } catch (Exception e) {
-            return ResponseEntity.status(500).body(createErrorResponse("Ошибка удаления дизайна: " + e.getMessage()));
+            return ResponseEntity.status(500).body(createErrorResponse("Ошибка массового удаления дизайнов: " + e.getMessage()));
         }
     }
 
@@ -254,39 +367,53 @@ public class MasterDesignController {
                 return ResponseEntity.status(403).body(createErrorResponse("Доступ запрещен"));
             }
 
-            List<DesignDTO> designs = designService.getDesignsByCreator(username);
+            MasterStats masterStats = masterStatsService.getStats(username);
+            return ResponseEntity.ok(toResponse(user, masterStats));
+
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body(createErrorResponse("Ошибка получения статистики: " + e.getMessage()));
+        }
+    }
 
-            Map<String, Object> stats = new HashMap<>();
-            stats.put("totalDesigns", designs.size());
-            stats.put("salonName", user.getSalonName());
-            stats.put("address", user.getAddress());
-            stats.put("username", username);
-            stats.put("email", user.getEmail());
 
-            Map<String, Integer> designTypeStats = new HashMap<>();
-            for (DesignDTO design : designs) {
-                String type = design.getDesignType();
-                designTypeStats.put(type, designTypeStats.getOrDefault(type, 0) + 1);
+    @PostMapping("/stats/rebuild")
+    public ResponseEntity<?> rebuildMasterStats() {
+        try {
+            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+            String username = authentication.getName();
+
+            User user = userService.findByUsername(username);
+            if (user == null) {
+                return ResponseEntity.status(404).body(createErrorResponse("Пользователь не найден"));
             }
-            stats.put("designsByType", designTypeStats);
 
-            Map<String, Integer> colorStats = new HashMap<>();
-            for (DesignDTO design : designs) {
-                if (design.getColors() != null) {
-                    for (String color : design.getColors()) {
-                        colorStats.put(color, colorStats.getOrDefault(color, 0) + 1);
-                    }
-                }
+            if (user.getRole() != User.UserRole.MASTER) {
+                return ResponseEntity.status(403).body(createErrorResponse("Доступ запрещен"));
             }
-            stats.put("designsByColor", colorStats);
 
-            return ResponseEntity.ok(stats);
+            return ResponseEntity.ok(toResponse(user, masterStatsService.rebuild(username)));
 
         } catch (Exception e) {
-            return ResponseEntity.status(500).body(createErrorResponse("Ошибка получения статистики: " + e.getMessage()));
+            return ResponseEntity.status(500).body(createErrorResponse("Ошибка пересчёта статистики: " + e.getMessage()));
         }
     }
 
+    private Map<String, Object> toResponse(User user, MasterStats masterStats) {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("totalDesigns", masterStats.getTotalDesigns());
+        stats.put("salonName", user.getSalonName());
+        stats.put("address", user.getAddress());
+        stats.put("username", user.getUsername());
+        stats.put("email", user.getEmail());
+        stats.put("designsByType", MasterStatsService.positive(masterStats.getDesignsByType()));
+        stats.put("designsByColor", MasterStatsService.positive(masterStats.getDesignsByColor()));
+        stats.put("favoritesByDesign", MasterStatsService.positive(masterStats.getFavoritesByDesign()));
+        stats.put("tryOnsByDesign", MasterStatsService.positive(masterStats.getTryOnsByDesign()));
+        stats.put("totalFavorites", MasterStatsService.sum(masterStats.getFavoritesByDesign()));
+        stats.put("totalTryOns", MasterStatsService.sum(masterStats.getTryOnsByDesign()));
+        stats.put("rebuiltAt", masterStats.getRebuiltAt());
+        return stats;
+    }
 
     @GetMapping("/search")
     public ResponseEntity<?> searchMyDesigns(@RequestParam("q") String query) {
@@ -294,7 +421,7 @@ public class MasterDesignController {
             Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
             String username = authentication.getName();
 
-            User user = userService.findByUsername(username);
+            UserSummary user = userService.findSummaryByUsername(username);
             if (user == null) {
                 return ResponseEntity.status(404).body(createErrorResponse("Пользователь не найден"));
             }
@@ -327,6 +454,22 @@ public class MasterDesignController {
         }
     }
 
+    // Версия дизайна может прийти в теле (поле version) или в заголовке If-Match: "3"
+    private static Long parseIfMatch(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String value = ifMatch.trim();
+        if (value.startsWith("W/")) {
+            value = value.substring(2);
+        }
+        try {
+            return Long.parseLong(value.replace("\"", ""));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Некорректный заголовок If-Match");
+        }
+    }
+
     private Map<String, String> createErrorResponse(String message) {
         Map<String, String> error = new HashMap<>();
         error.put("error", message);
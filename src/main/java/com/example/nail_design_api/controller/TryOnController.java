@@ -1,16 +1,33 @@
 package com.example.nail_design_api.controller;
 
+import com.example.nail_design_api.config.RequestTiming;
+import com.example.nail_design_api.service.Deadline;
+import com.example.nail_design_api.service.MlServiceClient;
+import com.example.nail_design_api.service.MlServiceException;
+import com.example.nail_design_api.service.MasterStatsService;
+import com.example.nail_design_api.service.TryOnBatchService;
+import com.example.nail_design_api.service.TryOnPhotoNotFoundException;
+import com.example.nail_design_api.service.TryOnPhotoStore;
+import com.example.nail_design_api.service.TryOnRequest;
+import com.example.nail_design_api.service.TryOnResultCache;
+import com.example.nail_design_api.service.TryOnResultEncoder;
 import com.example.nail_design_api.service.TryOnService;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.ByteArrayResource;
 import org.springframework.http.*;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Logger;
 
 @RestController
@@ -19,74 +36,237 @@ public class TryOnController {
 
     private static final Logger logger = Logger.getLogger(TryOnController.class.getName());
 
-    @Value("${ml-service.url:http://ml-service:8000}")
-    private String mlServiceUrl;
+    @Autowired
+    private TryOnService tryOnService;
 
     @Autowired
-    private RestTemplate restTemplate;
+    private TryOnBatchService tryOnBatchService;
 
     @Autowired
-    private TryOnService tryOnService;
+    private TryOnResultCache tryOnResultCache;
+
+    @Autowired
+    private TryOnPhotoStore tryOnPhotoStore;
+
+    @Autowired
+    private TryOnResultEncoder tryOnResultEncoder;
+
+    @Autowired
+    private MasterStatsService masterStatsService;
+
+    @PostMapping("/tryon/photos")
+    public ResponseEntity<?> uploadPhoto(@RequestParam("photo") MultipartFile photo) throws IOException {
+        if (!tryOnService.isValidPhoto(photo)) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        TryOnPhotoStore.StoredPhoto stored;
+        try {
+            stored = tryOnPhotoStore.store(photo.getBytes(), photo.getOriginalFilename());
+        } catch (IllegalArgumentException e) {
+            logger.warning("Фото для примерки отклонено: " + e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("photoId", stored.getId());
+        response.put("expiresAt", stored.getExpiresAt().toString());
+        response.put("ttlSeconds", tryOnPhotoStore.getTtlSeconds());
+        response.put("size", stored.getPhoto().length);
+        return ResponseEntity.status(HttpStatus.CREATED).body(response);
+    }
+
+    @DeleteMapping("/tryon/photos/{photoId}")
+    public ResponseEntity<Void> deletePhoto(@PathVariable String photoId) {
+        return tryOnPhotoStore.remove(photoId)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
 
     @PostMapping("/tryon")
-    public ResponseEntity<byte[]> tryOnDesign(
-            @RequestParam("photo") MultipartFile photo,
+    public DeferredResult<ResponseEntity<byte[]>> tryOnDesign(
+            @RequestParam(value = "photo", required = false) MultipartFile photo,
+            @RequestParam(value = "photoId", required = false) String photoId,
             @RequestParam("designId") String designId,
             @RequestParam(value = "threshold", defaultValue = "0.4") double threshold,
-            @RequestParam(value = "opacity", defaultValue = "0.9") double opacity) {
+            @RequestParam(value = "opacity", defaultValue = "0.9") double opacity,
+            @RequestParam(value = "maxEdge", required = false) Integer maxEdge,
+            @RequestParam(value = "quality", required = false) Float quality,
+            @RequestParam(value = "format", required = false) String format,
+            @RequestHeader(value = MlServiceClient.TIMEOUT_HEADER, required = false) Long timeoutMs,
+            HttpServletRequest httpRequest) {
+
+        Deadline deadline = tryOnService.resolveDeadline(timeoutMs);
+        DeferredResult<ResponseEntity<byte[]>> deferred = new DeferredResult<>(deadline.remainingMillis() + 1000);
 
         try {
             logger.info("Получен запрос на примерку дизайна: designId=" + designId
                     + ", threshold=" + threshold + ", opacity=" + opacity);
 
-            if (!tryOnService.processTryOnRequest(photo, designId)) {
-                return ResponseEntity.badRequest().build();
+            TryOnResultEncoder.Options options = tryOnResultEncoder.resolve(maxEdge, quality, format, httpRequest);
+            TryOnRequest request = tryOnService.createRequest(photo, photoId, designId, threshold, opacity);
+            if (request == null) {
+                deferred.setResult(ResponseEntity.badRequest().build());
+                return deferred;
             }
+            request.setDeadline(deadline);
+            RequestTiming timing = RequestTiming.of(httpRequest);
+            long mlStarted = System.nanoTime();
+            CompletableFuture<byte[]> future = tryOnService.tryOnAsync(request);
 
-            String url = mlServiceUrl + "/api/tryon";
-
-            MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+            deferred.onTimeout(() -> {
+                future.cancel(true);
+                deferred.setResult(ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).build());
+            });
+            deferred.onError(error -> future.cancel(true));
 
-            ByteArrayResource photoResource = new ByteArrayResource(photo.getBytes()) {
-                @Override
-                public String getFilename() {
-                    return photo.getOriginalFilename();
+            // перекодирование не должно выполняться в потоке ввода-вывода ML клиента
+            future.whenCompleteAsync((result, error) -> {
+                if (timing != null) {
+                    timing.add(RequestTiming.Stage.ML, System.nanoTime() - mlStarted);
                 }
-            };
-            body.add("photo", photoResource);
-            body.add("designId", designId);
-            body.add("threshold", String.valueOf(threshold));
-            body.add("opacity", String.valueOf(opacity));
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.MULTIPART_FORM_DATA);
-
-            HttpEntity<MultiValueMap<String, Object>> requestEntity = new HttpEntity<>(body, headers);
-
-            logger.info("Отправка запроса в ML сервис: " + url);
-            ResponseEntity<byte[]> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.POST,
-                    requestEntity,
-                    byte[].class
-            );
-
-            if (response.getStatusCode().is2xxSuccessful() && response.getBody() != null) {
-                logger.info("Получен успешный ответ от ML сервиса");
-
-                HttpHeaders responseHeaders = new HttpHeaders();
-                responseHeaders.setContentType(MediaType.IMAGE_JPEG);
-                responseHeaders.setCacheControl(CacheControl.noCache().getHeaderValue());
-
-                return new ResponseEntity<>(response.getBody(), responseHeaders, HttpStatus.OK);
-            } else {
-                logger.warning("Получен неуспешный ответ от ML сервиса: " + response.getStatusCode());
-                return ResponseEntity.status(response.getStatusCode()).build();
-            }
+                if (error == null) {
+                    masterStatsService.recordTryOn(request.getDesignId());
+                    TryOnResultEncoder.Encoded encoded = tryOnResultEncoder.encode(result, options);
+                    HttpHeaders responseHeaders = resultHeaders(encoded, options);
+                    responseHeaders.setCacheControl(CacheControl.noCache().getHeaderValue());
+                    if (tryOnResultCache.isCacheable(request.getDesignId())) {
+                        responseHeaders.set(HttpHeaders.CONTENT_LOCATION, "/api/tryon/results/"
+                                + request.getDesignId() + "/" + request.getCacheKey() + options.toQueryString());
+                    }
+                    deferred.setResult(new ResponseEntity<>(encoded.getBody(), responseHeaders, HttpStatus.OK));
+                } else if (!future.isCancelled()) {
+                    deferred.setResult(errorResponse(error instanceof CompletionException ? error.getCause() : error));
+                }
+            });
         } catch (Exception e) {
-            logger.severe("Ошибка при обработке запроса: " + e.getMessage());
-            e.printStackTrace();
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+            deferred.setResult(errorResponse(e));
+        }
+        return deferred;
+    }
+
+    private ResponseEntity<byte[]> errorResponse(Throwable error) {
+        if (error instanceof TryOnPhotoNotFoundException) {
+            return ResponseEntity.notFound().build();
+        }
+        if (error instanceof IllegalArgumentException) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (error instanceof MlServiceException e) {
+            if (e.getStatus().value() == HttpStatus.SERVICE_UNAVAILABLE.value()) {
+                return ResponseEntity.status(e.getStatus()).header(HttpHeaders.RETRY_AFTER, "10").build();
+            }
+            return ResponseEntity.status(e.getStatus()).build();
+        }
+        logger.severe("Ошибка при обработке запроса: " + error.getMessage());
+        error.printStackTrace();
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+    }
+
+    @PostMapping("/tryon/batch")
+    public ResponseEntity<StreamingResponseBody> tryOnBatch(
+            @RequestParam(value = "photo", required = false) MultipartFile photo,
+            @RequestParam(value = "photoId", required = false) String photoId,
+            @RequestParam("designIds") List<String> designIds,
+            @RequestParam(value = "threshold", defaultValue = "0.4") double threshold,
+            @RequestParam(value = "opacity", defaultValue = "0.9") double opacity,
+            @RequestHeader(value = MlServiceClient.TIMEOUT_HEADER, required = false) Long timeoutMs) throws IOException {
+
+        logger.info("Получен запрос на пакетную примерку: designIds=" + designIds);
+
+        List<String> ids = designIds.stream().map(String::trim).distinct().toList();
+        if (ids.isEmpty() || ids.size() > tryOnBatchService.getMaxDesigns()
+                || ids.stream().anyMatch(String::isEmpty)) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        TryOnRequest base;
+        try {
+            base = tryOnService.createRequest(photo, photoId, ids.get(0), threshold, opacity);
+        } catch (TryOnPhotoNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        }
+        if (base == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        base.setDeadline(tryOnService.resolveDeadline(timeoutMs));
+        StreamingResponseBody body = out -> tryOnBatchService.streamBatch(base, ids, out);
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .cacheControl(CacheControl.noCache())
+                .body(body);
+    }
+
+    @PostMapping("/tryon/progressive")
+    public ResponseEntity<StreamingResponseBody> tryOnProgressive(
+            @RequestParam(value = "photo", required = false) MultipartFile photo,
+            @RequestParam(value = "photoId", required = false) String photoId,
+            @RequestParam("designId") String designId,
+            @RequestParam(value = "threshold", defaultValue = "0.4") double threshold,
+            @RequestParam(value = "opacity", defaultValue = "0.9") double opacity,
+            @RequestHeader(value = MlServiceClient.TIMEOUT_HEADER, required = false) Long timeoutMs) throws IOException {
+
+        logger.info("Получен запрос на примерку с превью: designId=" + designId);
+
+        TryOnRequest request;
+        try {
+            request = tryOnService.createRequest(photo, photoId, designId, threshold, opacity);
+        } catch (TryOnPhotoNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        }
+        if (request == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        request.setDeadline(tryOnService.resolveDeadline(timeoutMs));
+        StreamingResponseBody body = out -> tryOnBatchService.streamProgressive(request, out);
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .cacheControl(CacheControl.noCache())
+                .body(body);
+    }
+
+    @GetMapping("/tryon/results/{designId}/{key}")
+    public ResponseEntity<byte[]> getTryOnResult(
+            @PathVariable String designId,
+            @PathVariable String key,
+            @RequestParam(value = "maxEdge", required = false) Integer maxEdge,
+            @RequestParam(value = "quality", required = false) Float quality,
+            @RequestParam(value = "format", required = false) String format,
+            HttpServletRequest httpRequest,
+            WebRequest webRequest) {
+
+        TryOnResultEncoder.Options options;
+        try {
+            options = tryOnResultEncoder.resolve(maxEdge, quality, format, httpRequest);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        byte[] result = tryOnResultCache.get(designId, key);
+        if (result == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        TryOnResultEncoder.Encoded encoded = tryOnResultEncoder.encode(result, options);
+        if (webRequest.checkNotModified(encoded.getEtag())) {
+            return null;
+        }
+
+        HttpHeaders responseHeaders = resultHeaders(encoded, options);
+        responseHeaders.setCacheControl(CacheControl.maxAge(Duration.ofHours(1)).cachePrivate().getHeaderValue());
+        return new ResponseEntity<>(encoded.getBody(), responseHeaders, HttpStatus.OK);
+    }
+
+    private HttpHeaders resultHeaders(TryOnResultEncoder.Encoded encoded, TryOnResultEncoder.Options options) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(encoded.getMediaType());
+        headers.setETag(encoded.getEtag());
+        headers.set("Accept-CH", TryOnResultEncoder.ACCEPT_CH);
+        if (options.isHinted()) {
+            headers.setVary(List.of("Sec-CH-Width", "Sec-CH-Viewport-Width", "Sec-CH-DPR", "ECT", "Save-Data"));
         }
+        return headers;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,131 @@
+package com.example.nail_design_api.controller;
+
+import com.example.nail_design_api.service.TryOnJob;
+import com.example.nail_design_api.service.TryOnJobRejectedException;
+import com.example.nail_design_api.service.TryOnJobService;
+import com.example.nail_design_api.service.TryOnPhotoNotFoundException;
+import com.example.nail_design_api.service.TryOnRequest;
+import com.example.nail_design_api.service.TryOnService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.*;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+@RestController
+@RequestMapping("/api/tryon/jobs")
+public class TryOnJobController {
+
+    private static final Logger logger = Logger.getLogger(TryOnJobController.class.getName());
+
+    @Autowired
+    private TryOnService tryOnService;
+
+    @Autowired
+    private TryOnJobService tryOnJobService;
+
+    @PostMapping
+    public ResponseEntity<?> submitJob(
+            @RequestParam(value = "photo", required = false) MultipartFile photo,
+            @RequestParam(value = "photoId", required = false) String photoId,
+            @RequestParam("designId") String designId,
+            @RequestParam(value = "threshold", defaultValue = "0.4") double threshold,
+            @RequestParam(value = "opacity", defaultValue = "0.9") double opacity,
+            HttpServletRequest httpRequest) {
+
+        try {
+            TryOnRequest request = tryOnService.createRequest(photo, photoId, designId, threshold, opacity);
+            if (request == null) {
+                return ResponseEntity.badRequest().body(createErrorResponse("Некорректный запрос на примерку"));
+            }
+            TryOnJob job = tryOnJobService.submit(resolveOwner(httpRequest), request);
+
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .header(HttpHeaders.LOCATION, "/api/tryon/jobs/" + job.getId())
+                    .body(tryOnJobService.describe(job));
+        } catch (TryOnPhotoNotFoundException e) {
+            return ResponseEntity.status(404).body(createErrorResponse(e.getMessage()));
+        } catch (TryOnJobRejectedException e) {
+            logger.warning("Задача примерки отклонена: " + e.getMessage());
+            return ResponseEntity.status(e.getStatus())
+                    .header(HttpHeaders.RETRY_AFTER, "5")
+                    .body(createErrorResponse(e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.status(500).body(createErrorResponse("Ошибка чтения изображения: " + e.getMessage()));
+        }
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<?> getJob(@PathVariable String id, HttpServletRequest httpRequest) {
+        TryOnJob job = findOwnedJob(id, httpRequest);
+        if (job == null) {
+            return ResponseEntity.status(404).body(createErrorResponse("Задача не найдена"));
+        }
+        return ResponseEntity.ok(tryOnJobService.describe(job));
+    }
+
+    @GetMapping(value = "/{id}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamJob(@PathVariable String id, HttpServletRequest httpRequest) {
+        TryOnJob job = findOwnedJob(id, httpRequest);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(tryOnJobService.subscribe(job));
+    }
+
+    @GetMapping("/{id}/result")
+    public ResponseEntity<?> getJobResult(@PathVariable String id, HttpServletRequest httpRequest) {
+        TryOnJob job = findOwnedJob(id, httpRequest);
+        if (job == null) {
+            return ResponseEntity.status(404).body(createErrorResponse("Задача не найдена"));
+        }
+
+        if (job.getStatus() == TryOnJob.Status.FAILED) {
+            return ResponseEntity.status(job.getErrorStatus()).body(tryOnJobService.describe(job));
+        }
+        if (job.getStatus() != TryOnJob.Status.DONE) {
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .header(HttpHeaders.RETRY_AFTER, "2")
+                    .body(tryOnJobService.describe(job));
+        }
+
+        HttpHeaders responseHeaders = new HttpHeaders();
+        responseHeaders.setContentType(MediaType.IMAGE_JPEG);
+        responseHeaders.setCacheControl(CacheControl.noCache().getHeaderValue());
+        return new ResponseEntity<>(job.getResult(), responseHeaders, HttpStatus.OK);
+    }
+
+    // Чужая задача неотличима от несуществующей, чтобы по id нельзя было получить чужой результат
+    private TryOnJob findOwnedJob(String id, HttpServletRequest httpRequest) {
+        TryOnJob job = tryOnJobService.getJob(id);
+        if (job == null || !job.getOwner().equals(resolveOwner(httpRequest))) {
+            return null;
+        }
+        return job;
+    }
+
+    private String resolveOwner(HttpServletRequest request) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.isAuthenticated()
+                && !(authentication instanceof AnonymousAuthenticationToken)) {
+            return "user:" + authentication.getName();
+        }
+        return "ip:" + request.getRemoteAddr();
+    }
+
+    private Map<String, String> createErrorResponse(String message) {
+        Map<String, String> error = new HashMap<>();
+        error.put("error", message);
+        error.put("timestamp", java.time.Instant.now().toString());
+        return error;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.nail_design_api.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Тело массовых операций над дизайнами мастера. Для одинаковых изменений достаточно ids + changes,
+// для разных изменений по дизайнам — список updates
+public class DesignBulkDto {
+    private List<String> ids;
+    private Map<String, Object> changes;
+    private List<Item> updates;
+
+    public List<String> getIds() {
+        return ids;
+    }
+
+    public void setIds(List<String> ids) {
+        this.ids = ids;
+    }
+
+    public Map<String, Object> getChanges() {
+        return changes;
+    }
+
+    public void setChanges(Map<String, Object> changes) {
+        this.changes = changes;
+    }
+
+    public List<Item> getUpdates() {
+        return updates;
+    }
+
+    public void setUpdates(List<Item> updates) {
+        this.updates = updates;
+    }
+
+    public List<Item> toItems() {
+        List<Item> items = new ArrayList<>();
+        if (ids != null && changes != null) {
+            for (String id : ids) {
+                items.add(new Item(id, changes));
+            }
+        }
+        if (updates != null) {
+            items.addAll(updates);
+        }
+        return items;
+    }
+
+    public static class Item {
+        private String id;
+        private Map<String, Object> changes;
+
+        public Item() {}
+
+        public Item(String id, Map<String, Object> changes) {
+            this.id = id;
+            this.changes = changes;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        public Map<String, Object> getChanges() {
+            return changes;
+        }
+
+        public void setChanges(Map<String, Object> changes) {
+            this.changes = changes;
+        }
+    }
+}
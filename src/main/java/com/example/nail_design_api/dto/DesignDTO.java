@@ -1,6 +1,7 @@
 package com.example.nail_design_api.dto;
 
 import java.util.List;
+import java.util.Map;
 
 public class DesignDTO {
     private String id;
@@ -15,6 +16,8 @@ public class DesignDTO {
     private String thumbnailPath;
     private String createdBy;
     private String salonName;
+    private Map<String, String> previews;
+    private Long version;
 
     public String getId() {
         return id;
@@ -111,4 +114,20 @@ public class DesignDTO {
     public void setSalonName(String salonName) {
         this.salonName = salonName;
     }
-}
\ No newline at end of file
+
+    public Map<String, String> getPreviews() {
+        return previews;
+    }
+
+    public void setPreviews(Map<String, String> previews) {
+        this.previews = previews;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+}
@@ -1,9 +1,11 @@
 package com.example.nail_design_api.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.util.List;
+import java.util.Map;
 
 @Document
 public class Design {
@@ -19,6 +21,8 @@ public class Design {
     private String thumbnailPath;
     private String createdBy;
     private String salonName;
+    private Map<String, String> previews;
+    @Version private Long version;
 
     public Design() {}
 
@@ -151,4 +155,20 @@ public class Design {
     public void setSalonName(String salonName) {
         this.salonName = salonName;
     }
+
+    public Map<String, String> getPreviews() {
+        return previews;
+    }
+
+    public void setPreviews(Map<String, String> previews) {
+        this.previews = previews;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
 }
@@ -0,0 +1,93 @@
+package com.example.nail_design_api.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+@Document(collection = "masterStats")
+public class MasterStats {
+    @Id
+    private String username;
+
+    private long totalDesigns;
+    private Map<String, Long> designsByType = new HashMap<>();
+    private Map<String, Long> designsByColor = new HashMap<>();
+    private Map<String, Long> favoritesByDesign = new HashMap<>();
+    private Map<String, Long> tryOnsByDesign = new HashMap<>();
+    private Instant rebuiltAt;
+    // растёт при каждом $inc: пересчёт записывает результат, только если документ не менялся
+    private Long revision;
+
+    public MasterStats() {}
+
+    public MasterStats(String username) {
+        this.username = username;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public long getTotalDesigns() {
+        return totalDesigns;
+    }
+
+    public void setTotalDesigns(long totalDesigns) {
+        this.totalDesigns = totalDesigns;
+    }
+
+    public Map<String, Long> getDesignsByType() {
+        return designsByType;
+    }
+
+    public void setDesignsByType(Map<String, Long> designsByType) {
+        this.designsByType = designsByType;
+    }
+
+    public Map<String, Long> getDesignsByColor() {
+        return designsByColor;
+    }
+
+    public void setDesignsByColor(Map<String, Long> designsByColor) {
+        this.designsByColor = designsByColor;
+    }
+
+    public Map<String, Long> getFavoritesByDesign() {
+        return favoritesByDesign;
+    }
+
+    public void setFavoritesByDesign(Map<String, Long> favoritesByDesign) {
+        this.favoritesByDesign = favoritesByDesign;
+    }
+
+    public Map<String, Long> getTryOnsByDesign() {
+        return tryOnsByDesign;
+    }
+
+    public void setTryOnsByDesign(Map<String, Long> tryOnsByDesign) {
+        this.tryOnsByDesign = tryOnsByDesign;
+    }
+
+    public Instant getRebuiltAt() {
+        return rebuiltAt;
+    }
+
+    public void setRebuiltAt(Instant rebuiltAt) {
+        this.rebuiltAt = rebuiltAt;
+    }
+
+    public Long getRevision() {
+        return revision;
+    }
+
+    public void setRevision(Long revision) {
+        this.revision = revision;
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.nail_design_api.model;
+
+// Проекция пользователя для проверок доступа и владения: без паролей и множеств избранного/созданных дизайнов
+public interface UserSummary {
+
+    String getId();
+
+    String getUsername();
+
+    User.UserRole getRole();
+
+    String getSalonName();
+}
@@ -1,6 +1,7 @@
 package com.example.nail_design_api.repository;
 
 import com.example.nail_design_api.model.User;
+import com.example.nail_design_api.model.UserSummary;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 import java.util.Optional;
@@ -8,5 +9,10 @@ import java.util.Optional;
 public interface UserRepository extends MongoRepository<User, String> {
     @Query("{'username': ?0}")
     Optional<User> findByUsername(String username);
-}
 
+    @Query(value = "{'username': ?0}", fields = "{'username': 1, 'role': 1, 'salonName': 1}")
+    Optional<UserSummary> findSummaryByUsername(String username);
+
+    @Query(value = "{'username': ?0}", exists = true)
+    boolean existsByUsername(String username);
+}
@@ -1,7 +1,7 @@
 package com.example.nail_design_api.security;
 
+import com.example.nail_design_api.config.RequestTiming;
 import com.example.nail_design_api.service.UserService;
-import com.example.nail_design_api.model.User;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -30,6 +30,7 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
                                     FilterChain filterChain) throws ServletException, IOException {
+        long started = System.nanoTime();
         try {
             String jwt = parseJwt(request);
 
@@ -37,8 +38,7 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
                 String username = jwtUtils.getUsernameFromJwtToken(jwt);
                 String role = jwtUtils.getRoleFromJwtToken(jwt);
 
-                User user = userService.findByUsername(username);
-                if (user != null) {
+                if (userService.existsByUsername(username)) {
                     List<SimpleGrantedAuthority> authorities = List.of(
                             new SimpleGrantedAuthority("ROLE_" + role)
                     );
@@ -51,6 +51,8 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             }
         } catch (Exception e) {
             logger.error("Cannot set user authentication: {}", e);
+        } finally {
+            RequestTiming.record(RequestTiming.Stage.AUTH, started);
         }
 
         filterChain.doFilter(request, response);
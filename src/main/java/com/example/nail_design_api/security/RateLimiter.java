@@ -0,0 +1,135 @@
+package com.example.nail_design_api.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpMethod;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token bucket на каждый ключ (пользователь или IP) в каждой группе маршрутов.
+// Реализован как GCRA: состояние корзины — одно значение "теоретического времени прихода",
+// которое обновляется через CAS без блокировок
+@Component
+public class RateLimiter {
+
+    public enum Group {
+        TRYON(20, 5),
+        AUTH(10, 10),
+        UPLOADS(60, 20);
+
+        private final int defaultPerMinute;
+        private final int defaultBurst;
+
+        Group(int defaultPerMinute, int defaultBurst) {
+            this.defaultPerMinute = defaultPerMinute;
+            this.defaultBurst = defaultBurst;
+        }
+    }
+
+    private final boolean enabled;
+    private final int maxKeys;
+    private final long inlineSweepIntervalNanos;
+    private final AtomicLong lastInlineSweep = new AtomicLong(System.nanoTime());
+    private final Map<Group, Limit> limits = new EnumMap<>(Group.class);
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+    public RateLimiter(Environment env, MeterRegistry meterRegistry) {
+        this.enabled = env.getProperty("ratelimit.enabled", Boolean.class, true);
+        this.maxKeys = env.getProperty("ratelimit.max-keys", Integer.class, 100_000);
+        this.inlineSweepIntervalNanos = TimeUnit.MILLISECONDS.toNanos(
+                env.getProperty("ratelimit.inline-sweep-interval-ms", Long.class, 1000L));
+        for (Group group : Group.values()) {
+            String prefix = "ratelimit." + group.name().toLowerCase() + ".";
+            int perMinute = env.getProperty(prefix + "requests-per-minute", Integer.class, group.defaultPerMinute);
+            int burst = env.getProperty(prefix + "burst", Integer.class, group.defaultBurst);
+            Counter rejected = Counter.builder("ratelimit.rejected")
+                    .tag("group", group.name().toLowerCase())
+                    .register(meterRegistry);
+            limits.put(group, new Limit(TimeUnit.MINUTES.toNanos(1) / Math.max(1, perMinute), Math.max(1, burst), rejected));
+        }
+        meterRegistry.gauge("ratelimit.keys", buckets, ConcurrentHashMap::size);
+    }
+
+    public Group groupFor(String method, String path) {
+        if (!enabled || HttpMethod.GET.matches(method) || HttpMethod.OPTIONS.matches(method)) {
+            return null;
+        }
+        if (path.startsWith("/api/tryon")) {
+            return Group.TRYON;
+        }
+        if (path.equals("/api/auth/login") || path.equals("/api/auth/refresh")
+                || path.startsWith("/api/auth/register")) {
+            return Group.AUTH;
+        }
+        if (path.startsWith("/api/master/")) {
+            return Group.UPLOADS;
+        }
+        return null;
+    }
+
+    public Decision tryAcquire(Group group, String key) {
+        Limit limit = limits.get(group);
+        AtomicLong bucket = bucket(group.name() + "|" + key);
+        long capacity = limit.intervalNanos * limit.burst;
+
+        while (true) {
+            long now = System.nanoTime();
+            long tat = bucket.get();
+            long newTat = Math.max(tat, now) + limit.intervalNanos;
+            long ahead = newTat - now;
+            if (ahead > capacity) {
+                limit.rejected.increment();
+                return new Decision(false, limit.burst, 0, toSeconds(tat - now), toSeconds(ahead - capacity));
+            }
+            if (bucket.compareAndSet(tat, newTat)) {
+                int remaining = (int) ((capacity - ahead) / limit.intervalNanos);
+                return new Decision(true, limit.burst, remaining, toSeconds(ahead), 0);
+            }
+        }
+    }
+
+    // Корзина, которая успела полностью наполниться, ничем не отличается от новой — её можно удалить
+    @Scheduled(fixedDelayString = "${ratelimit.cleanup-interval-ms:60000}")
+    public void evictIdle() {
+        long now = System.nanoTime();
+        buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+    }
+
+    private AtomicLong bucket(String key) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (buckets.size() >= maxKeys) {
+            // полный обход таблицы на потоке запроса — не чаще раза в inline-sweep-interval-ms и одним потоком,
+            // иначе клиент, перебирающий IP, получал бы O(n) на каждый запрос; остальное делает evictIdle по расписанию
+            long last = lastInlineSweep.get();
+            long now = System.nanoTime();
+            if (now - last >= inlineSweepIntervalNanos && lastInlineSweep.compareAndSet(last, now)) {
+                evictIdle();
+            }
+            if (buckets.size() >= maxKeys) {
+                // при переполнении все новые ключи делят одну общую корзину группы
+                key = key.substring(0, key.indexOf('|')) + "|overflow";
+            }
+        }
+        return buckets.computeIfAbsent(key, k -> new AtomicLong(System.nanoTime()));
+    }
+
+    private static long toSeconds(long nanos) {
+        return nanos <= 0 ? 0 : (nanos + 999_999_999L) / 1_000_000_000L;
+    }
+
+    public record Decision(boolean allowed, int limit, int remaining, long resetSeconds, long retryAfterSeconds) {
+    }
+
+    private record Limit(long intervalNanos, int burst, Counter rejected) {
+    }
+}
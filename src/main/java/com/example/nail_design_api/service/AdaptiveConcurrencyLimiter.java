@@ -0,0 +1,121 @@
+package com.example.nail_design_api.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long latencyThresholdNanos;
+    private final int maxQueued;
+
+    private double limit;
+    private int inFlight;
+    private final ArrayDeque<CompletableFuture<Boolean>> waiters = new ArrayDeque<>();
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+                                      double backoffRatio, long latencyThresholdMs, int maxQueued) {
+        this.maxQueued = maxQueued;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMs);
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    // Неблокирующий допуск: true — разрешение получено, false — очередь полна или ожидание истекло.
+    // Поток вызывающего не паркуется, разрешение выдаётся из release() того вызова, который освободил место
+    public CompletableFuture<Boolean> acquire(long timeoutMs) {
+        CompletableFuture<Boolean> waiter;
+        synchronized (this) {
+            if (inFlight < getLimit()) {
+                inFlight++;
+                return CompletableFuture.completedFuture(true);
+            }
+            if (waiters.size() >= maxQueued) {
+                waiters.removeIf(CompletableFuture::isDone);
+            }
+            if (timeoutMs <= 0 || waiters.size() >= maxQueued) {
+                return CompletableFuture.completedFuture(false);
+            }
+            waiter = new CompletableFuture<>();
+            waiters.addLast(waiter);
+        }
+        return waiter.completeOnTimeout(false, timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void onSuccess(long latencyNanos) {
+        List<CompletableFuture<Boolean>> granted;
+        synchronized (this) {
+            if (latencyNanos > latencyThresholdNanos) {
+                decrease();
+            } else if (inFlight * 2 >= getLimit()) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            granted = release();
+        }
+        grant(granted);
+    }
+
+    public void onDropped() {
+        List<CompletableFuture<Boolean>> granted;
+        synchronized (this) {
+            decrease();
+            granted = release();
+        }
+        grant(granted);
+    }
+
+    public void onIgnored() {
+        List<CompletableFuture<Boolean>> granted;
+        synchronized (this) {
+            granted = release();
+        }
+        grant(granted);
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return waiters.size();
+    }
+
+    private void decrease() {
+        limit = Math.max(minLimit, limit * backoffRatio);
+    }
+
+    // Освобождённые места сразу резервируются за ожидающими; сами future завершаются вне блокировки,
+    // потому что продолжения ожидающих выполняются в этом же потоке
+    private List<CompletableFuture<Boolean>> release() {
+        inFlight--;
+        List<CompletableFuture<Boolean>> granted = new ArrayList<>();
+        while (inFlight < getLimit() && !waiters.isEmpty()) {
+            CompletableFuture<Boolean> waiter = waiters.pollFirst();
+            if (!waiter.isDone()) {
+                inFlight++;
+                granted.add(waiter);
+            }
+        }
+        return granted;
+    }
+
+    private void grant(List<CompletableFuture<Boolean>> granted) {
+        for (CompletableFuture<Boolean> waiter : granted) {
+            // ожидание истекло или отменено между резервированием и выдачей: место возвращается
+            if (!waiter.complete(true)) {
+                onIgnored();
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.nail_design_api.service;
+
+import java.util.function.LongSupplier;
+
+public class CircuitBreaker {
+
+    private static final long NO_PROBE = -1;
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final boolean[] outcomes;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openDurationMs;
+    private final int halfOpenCalls;
+    private final LongSupplier clock;
+
+    private State state = State.CLOSED;
+    private int recorded;
+    private int failures;
+    private int next;
+    private long openedAt;
+    private int halfOpenInFlight;
+    private int halfOpenSuccesses;
+    private long halfOpenEpoch;
+
+    public CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold,
+                          long openDurationMs, int halfOpenCalls) {
+        this(windowSize, minimumCalls, failureRateThreshold, openDurationMs, halfOpenCalls, System::currentTimeMillis);
+    }
+
+    CircuitBreaker(int windowSize, int minimumCalls, double failureRateThreshold,
+                   long openDurationMs, int halfOpenCalls, LongSupplier clock) {
+        this.outcomes = new boolean[windowSize];
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openDurationMs = openDurationMs;
+        this.halfOpenCalls = halfOpenCalls;
+        this.clock = clock;
+    }
+
+    // null — вызов не пропущен. Результат вызова сообщается через выданное разрешение: так в HALF_OPEN
+    // учитываются только пробные вызовы этого полуоткрытого периода, а не начатые ещё при CLOSED
+    public synchronized Permit tryAcquire() {
+        if (state == State.OPEN) {
+            if (clock.getAsLong() - openedAt < openDurationMs) {
+                return null;
+            }
+            state = State.HALF_OPEN;
+            halfOpenEpoch++;
+            halfOpenInFlight = 0;
+            halfOpenSuccesses = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (halfOpenInFlight >= halfOpenCalls) {
+                return null;
+            }
+            halfOpenInFlight++;
+            return new Permit(halfOpenEpoch);
+        }
+        return new Permit(NO_PROBE);
+    }
+
+    private synchronized void onSuccess(Permit permit) {
+        if (state == State.HALF_OPEN) {
+            if (isProbe(permit)) {
+                halfOpenInFlight--;
+                if (++halfOpenSuccesses >= halfOpenCalls) {
+                    state = State.CLOSED;
+                    resetWindow();
+                }
+            }
+            return;
+        }
+        if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    private synchronized void onFailure(Permit permit) {
+        if (state == State.HALF_OPEN) {
+            if (isProbe(permit)) {
+                open();
+            }
+            return;
+        }
+        if (state == State.CLOSED) {
+            record(true);
+            if (recorded >= minimumCalls && (double) failures / recorded >= failureRateThreshold) {
+                open();
+            }
+        }
+    }
+
+    private synchronized void onIgnored(Permit permit) {
+        if (state == State.HALF_OPEN && isProbe(permit)) {
+            halfOpenInFlight--;
+        }
+    }
+
+    private boolean isProbe(Permit permit) {
+        return permit.epoch != NO_PROBE && permit.epoch == halfOpenEpoch;
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && clock.getAsLong() - openedAt >= openDurationMs) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    private void record(boolean failure) {
+        if (recorded == outcomes.length) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        outcomes[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = clock.getAsLong();
+        resetWindow();
+    }
+
+    private void resetWindow() {
+        recorded = 0;
+        failures = 0;
+        next = 0;
+    }
+
+    // Разрешение на один вызов; о результате сообщается ровно один раз
+    public final class Permit {
+
+        private final long epoch;
+
+        private Permit(long epoch) {
+            this.epoch = epoch;
+        }
+
+        public void onSuccess() {
+            CircuitBreaker.this.onSuccess(this);
+        }
+
+        public void onFailure() {
+            CircuitBreaker.this.onFailure(this);
+        }
+
+        public void onIgnored() {
+            CircuitBreaker.this.onIgnored(this);
+        }
+    }
+}
@@ -1,86 +1,169 @@
 package com.example.nail_design_api.service;
 
+import com.example.nail_design_api.config.SeedDataGate;
 import com.example.nail_design_api.model.Design;
-import com.example.nail_design_api.repository.DesignRepository;
-import org.springframework.boot.CommandLineRunner;
+import com.mongodb.bulk.BulkWriteResult;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Component;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.annotation.Order;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
 
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+// Начальное заполнение каталога. Выполняется в фоне после того, как приложение готово принимать запросы,
+// и ничего не удаляет: базовые дизайны обновляются upsert'ом по imagePath одним bulk-запросом,
+// а контрольная сумма набора в коллекции seedState позволяет при обычном перезапуске не делать ничего
 @Profile("!test")
 @Component
-@Order(2) // Запускается после DemoUserInitService
-public class DataInitMongoService implements CommandLineRunner {
+public class DataInitMongoService {
 
-    private final DesignRepository repo;
-    private final MongoTemplate mongo;
+    private static final Logger logger = Logger.getLogger(DataInitMongoService.class.getName());
 
-    @Value("${data.init.force-reset:false}")
-    private boolean forceReset;
+    private static final String SEED_STATE_COLLECTION = "seedState";
+    private static final String SEED_ID = "designs";
 
-    public DataInitMongoService(DesignRepository repo, MongoTemplate mongo) {
-        this.repo = repo;
-        this.mongo = mongo;
-    }
+    private static final List<Design> SEED_DESIGNS = List.of(
+            new Design(null, "Классический красный", "Классический красный френч-маникюр",
+                    List.of("red"), "classic", "autumn", "medium", "gel",
+                    "simple_red.jpg", "simple_red_thumb.jpg"),
 
-    @Override
-    public void run(String... args) {
-        boolean shouldInit = repo.count() == 0 || forceReset;
-        System.out.println("▶ Initializing designs? " + shouldInit);
+            new Design(null, "Яркий фуксия", "Яркий фуксия цвет с блестками",
+                    List.of("fuchsia"), "bold", "summer", "medium", "acrylic",
+                    "simple_pink.jpg", "simple_pink_thumb.jpg"),
 
-        if (!shouldInit) {
-            return;
-        }
+            new Design(null, "Нежный лавандовый", "Нежный лавандовый  маникюр",
+                    List.of("purple"), "pastel", "spring", "medium", "gel",
+                    "simple_violet.jpg", "simple_violet_thumb.jpg"),
 
-        mongo.dropCollection(Design.class);
+            new Design(null, "Оливковый матовый", "Оливковый матовый маникюр на каждый день",
+                    List.of("olive"), "matte", "winter", "medium", "gel",
+                    "simple_grey_green.jpg", "simple_grey_green_thumb.jpg"),
 
-        List<Design> designs = List.of(
-                new Design(null, "Классический красный", "Классический красный френч-маникюр",
-                        List.of("red"), "classic", "autumn", "medium", "gel",
-                        "simple_red.jpg", "simple_red_thumb.jpg"),
+            new Design(null, "Свежий мятный", "Свежий мятный омбре маникюр",
+                    List.of("mint"), "pastel", "spring", "medium", "gel",
+                    "simple_green.jpg", "simple_green_thumb.jpg"),
 
-                new Design(null, "Яркий фуксия", "Яркий фуксия цвет с блестками",
-                        List.of("fuchsia"), "bold", "summer", "medium", "acrylic",
-                        "simple_pink.jpg", "simple_pink_thumb.jpg"),
+            new Design(null, "Нюдовый натуральный", "Нюдовый натуральный френч маникюр",
+                    List.of("nude"), "nude", "everyday", "medium", "gel",
+                    "simple.jpg", "simple_thumb.jpg"),
 
-                new Design(null, "Нежный лавандовый", "Нежный лавандовый  маникюр",
-                        List.of("purple"), "pastel", "spring", "medium", "gel",
-                        "simple_violet.jpg", "simple_violet_thumb.jpg"),
+            new Design(null, "Глубокий бордовый", "Глубокий бордовый матовый маникюр",
+                    List.of("burgundy"), "dark", "winter", "medium", "gel",
+                    "simple_wien.jpg", "simple_wien_thumb.jpg"),
 
-                new Design(null, "Оливковый матовый", "Оливковый матовый маникюр на каждый день",
-                        List.of("olive"), "matte", "winter", "medium", "gel",
-                        "simple_grey_green.jpg", "simple_grey_green_thumb.jpg"),
+            new Design(null, "Яркий оранжевый", "Яркий оранжевый маникюр",
+                    List.of("orange", "pink"), "bold", "summer", "medium", "gel",
+                    "pink-or.jpg", "pink-or_thumb.jpg"),
 
-                new Design(null, "Свежий мятный", "Свежий мятный омбре маникюр",
-                        List.of("mint"), "pastel", "spring", "medium", "gel",
-                        "simple_green.jpg", "simple_green_thumb.jpg"),
+            new Design(null, "Классический белый", "Классический белый маникюр",
+                    List.of("white"), "classic", "summer", "medium", "gel",
+                    "white.jpg", "white_thumb.jpg"),
 
-                new Design(null, "Нюдовый натуральный", "Нюдовый натуральный френч маникюр",
-                        List.of("nude"), "nude", "everyday", "medium", "gel",
-                        "simple.jpg", "simple_thumb.jpg"),
+            new Design(null, "Классический оранжевый", "Классический оранжевый маникюр",
+                    List.of("orange"), "classic", "everyday", "medium", "gel",
+                    "or.jpg", "or_thumb.jpg")
+    );
+
+    private final MongoTemplate mongo;
+    private final DemoUserInitService demoUserInitService;
+    private final SeedDataGate seedDataGate;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "seed-data");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // принудительно повторить заполнение, даже если контрольная сумма совпадает; данные не удаляются
+    @Value("${data.init.force-reset:false}")
+    private boolean forceReset;
 
-                new Design(null, "Глубокий бордовый", "Глубокий бордовый матовый маникюр",
-                        List.of("burgundy"), "dark", "winter", "medium", "gel",
-                        "simple_wien.jpg", "simple_wien_thumb.jpg"),
+    public DataInitMongoService(MongoTemplate mongo, DemoUserInitService demoUserInitService, SeedDataGate seedDataGate) {
+        this.mongo = mongo;
+        this.demoUserInitService = demoUserInitService;
+        this.seedDataGate = seedDataGate;
+        seedDataGate.markPending();
+    }
 
-                new Design(null, "Яркий оранжевый", "Яркий оранжевый маникюр",
-                        List.of("orange", "pink"), "bold", "summer", "medium", "gel",
-                        "pink-or.jpg", "pink-or_thumb.jpg"),
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        executor.execute(this::seed);
+    }
 
-                new Design(null, "Классический белый", "Классический белый маникюр",
-                        List.of("white"), "classic", "summer", "medium", "gel",
-                        "white.jpg", "white_thumb.jpg"),
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
 
-                new Design(null, "Классический оранжевый", "Классический оранжевый маникюр",
-                        List.of("orange"), "classic", "everyday", "medium", "gel",
-                        "or.jpg", "or_thumb.jpg")
-        );
+    void seed() {
+        try {
+            if (mongo.exists(new Query(), Design.class)) {
+                seedDataGate.markReady();
+            }
+            demoUserInitService.initDemoUsers();
+
+            String checksum = checksum(SEED_DESIGNS);
+            Document state = mongo.findById(SEED_ID, Document.class, SEED_STATE_COLLECTION);
+            if (!forceReset && state != null && checksum.equals(state.getString("checksum"))) {
+                logger.info("Базовые дизайны не изменились, заполнение пропущено");
+                return;
+            }
+
+            // по имени коллекции, а не по классу: upsert не должен трогать версию дизайнов
+            BulkOperations bulk = mongo.bulkOps(BulkOperations.BulkMode.UNORDERED, mongo.getCollectionName(Design.class));
+            for (Design design : SEED_DESIGNS) {
+                bulk.upsert(new Query(where("imagePath").is(design.getImagePath()).and("createdBy").is(null)),
+                        new Update()
+                                .set("name", design.getName())
+                                .set("description", design.getDescription())
+                                .set("colors", design.getColors())
+                                .set("designType", design.getDesignType())
+                                .set("occasion", design.getOccasion())
+                                .set("length", design.getLength())
+                                .set("material", design.getMaterial())
+                                .set("thumbnailPath", design.getThumbnailPath()));
+            }
+            BulkWriteResult result = bulk.execute();
+
+            mongo.upsert(new Query(where("_id").is(SEED_ID)),
+                    new Update().set("checksum", checksum).set("appliedAt", Instant.now()), SEED_STATE_COLLECTION);
+            logger.info("Базовые дизайны применены: добавлено " + result.getUpserts().size()
+                    + ", обновлено " + result.getModifiedCount());
+        } catch (Exception e) {
+            logger.severe("Ошибка начального заполнения: " + e.getMessage());
+        } finally {
+            seedDataGate.markReady();
+        }
+    }
 
-        repo.saveAll(designs);
-        System.out.println("✅ designs count: " + repo.count());
+    static String checksum(List<Design> designs) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Design d : designs) {
+                String line = String.join("\u0001", d.getImagePath(), d.getName(), d.getDescription(),
+                        String.join(",", d.getColors()), d.getDesignType(), d.getOccasion(), d.getLength(),
+                        d.getMaterial(), d.getThumbnailPath()) + "\n";
+                digest.update(line.getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,365 @@
+package com.example.nail_design_api.service;
+
+import com.example.nail_design_api.model.Design;
+import com.example.nail_design_api.repository.DesignRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+// Фоновая выгрузка изображений дизайнов в ML сервис (/api/upload-design), чтобы примерка
+// находила файл дизайна локально. Манифест с контрольными суммами хранится на диске,
+// поэтому после перезапуска выгружаются только новые и изменённые дизайны. При сверке манифест
+// проверяется по списку файлов реплики (/api/designs), удалённые дизайны удаляются и в ML сервисе
+@Service
+public class DesignAssetSyncService {
+
+    private static final Logger logger = Logger.getLogger(DesignAssetSyncService.class.getName());
+
+    @Autowired
+    private DesignRepository designRepository;
+
+    @Autowired
+    private MlServiceClient mlServiceClient;
+
+    @Autowired
+    private TryOnResultCache tryOnResultCache;
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${upload.path}")
+    private String uploadPath;
+
+    @Value("${ml-service.design-sync.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ml-service.design-sync.manifest:${upload.path}/.ml-design-manifest.json}")
+    private String manifestPath;
+
+    private final Counter uploadedCounter;
+    private final Counter failedCounter;
+
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean fullSyncQueued = new AtomicBoolean();
+    private ExecutorService executor;
+
+    private Manifest manifest = new Manifest();
+
+    public DesignAssetSyncService(MeterRegistry meterRegistry) {
+        this.uploadedCounter = Counter.builder("ml.design-sync.uploaded")
+                .description("Изображения дизайнов, выгруженные в ML сервис")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("ml.design-sync.failed")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "design-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Path file = Paths.get(manifestPath);
+        if (Files.exists(file)) {
+            try {
+                manifest = objectMapper.readValue(file.toFile(), Manifest.class);
+                logger.info("Манифест синхронизации дизайнов загружен: " + manifest.files.size() + " файлов");
+            } catch (IOException e) {
+                logger.warning("Манифест синхронизации дизайнов повреждён, будет построен заново: " + e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    // Завершается, когда дизайн выгружен (или выгрузка не потребовалась)
+    public CompletableFuture<Void> scheduleSync(String designId) {
+        if (!enabled || designId == null || !pending.add(designId)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> {
+            pending.remove(designId);
+            designRepository.findById(designId).ifPresent(design -> {
+                if (sync(design)) {
+                    saveManifest();
+                }
+            });
+        }, executor);
+    }
+
+    public void forget(String designId) {
+        if (!enabled || designId == null) {
+            return;
+        }
+        executor.execute(() -> {
+            boolean changed = manifest.files.remove(designId) != null;
+            changed |= deleteFromReplicas(Set.of(designId));
+            if (changed) {
+                saveManifest();
+            }
+        });
+    }
+
+    @Scheduled(initialDelayString = "${ml-service.design-sync.initial-delay-ms:30000}",
+            fixedDelayString = "${ml-service.design-sync.interval-ms:600000}")
+    public void reconcile() {
+        if (!enabled || !fullSyncQueued.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            fullSyncQueued.set(false);
+            syncAll();
+        });
+    }
+
+    private void syncAll() {
+        boolean changed = verifyReplicas();
+
+        List<Design> designs = designRepository.findAll();
+        Set<String> ids = new HashSet<>();
+        for (Design design : designs) {
+            ids.add(design.getId());
+            changed |= sync(design);
+        }
+
+        changed |= manifest.files.keySet().retainAll(ids);
+        // дизайны, удалённые в API, пока реплика была недоступна
+        Set<String> removed = new HashSet<>();
+        for (Map<String, String> synced : manifest.replicas.values()) {
+            synced.keySet().stream().filter(id -> !ids.contains(id)).forEach(removed::add);
+        }
+        changed |= deleteFromReplicas(removed);
+        if (changed) {
+            saveManifest();
+        }
+        logger.info("Сверка дизайнов с ML сервисом завершена: " + designs.size() + " дизайнов");
+    }
+
+    // Возвращает true, если манифест изменился
+    private boolean sync(Design design) {
+        if (design.getImagePath() == null) {
+            return false;
+        }
+        Path file = Paths.get(uploadPath, design.getImagePath());
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+
+        boolean changed = false;
+        FileEntry entry;
+        try {
+            FileEntry known = manifest.files.get(design.getId());
+            entry = FileEntry.of(file);
+            if (known != null && known.size == entry.size && known.modified == entry.modified) {
+                entry.checksum = known.checksum;
+            } else {
+                entry.checksum = checksum(file);
+                manifest.files.put(design.getId(), entry);
+                changed = true;
+            }
+        } catch (IOException e) {
+            logger.warning("Не удалось прочитать изображение дизайна " + design.getId() + ": " + e.getMessage());
+            return false;
+        }
+
+        boolean uploaded = false;
+        for (MlReplica replica : mlServiceClient.getReplicas()) {
+            Map<String, String> synced = manifest.replicas.computeIfAbsent(replica.getUrl(), url -> new HashMap<>());
+            if (entry.checksum.equals(synced.get(design.getId())) || !replica.isHealthy()) {
+                continue;
+            }
+            if (upload(replica.getUrl(), design.getId(), file)) {
+                synced.put(design.getId(), entry.checksum);
+                uploaded = true;
+            }
+        }
+        // результаты, посчитанные до выгрузки, могли использовать запасной файл дизайна
+        if (uploaded) {
+            tryOnResultCache.invalidateDesign(design.getId());
+        }
+        return changed || uploaded;
+    }
+
+    // Сверяет манифест с файлами на репликах: если каталог дизайнов ML сервиса очищен или пересоздан,
+    // отсутствующие и отличающиеся по размеру файлы помечаются невыгруженными и выгружаются заново
+    private boolean verifyReplicas() {
+        boolean changed = false;
+        for (MlReplica replica : mlServiceClient.getReplicas()) {
+            Map<String, String> synced = manifest.replicas.get(replica.getUrl());
+            if (synced == null || synced.isEmpty() || !replica.isHealthy()) {
+                continue;
+            }
+            Map<String, Long> remote = listRemote(replica.getUrl());
+            if (remote == null) {
+                continue;
+            }
+            Iterator<String> it = synced.keySet().iterator();
+            while (it.hasNext()) {
+                String designId = it.next();
+                Long remoteSize = remote.get(designId);
+                FileEntry local = manifest.files.get(designId);
+                if (remoteSize == null || (remoteSize >= 0 && local != null && remoteSize != local.size)) {
+                    logger.warning("Дизайн " + designId + " отсутствует или отличается на " + replica.getUrl()
+                            + ", будет выгружен заново");
+                    it.remove();
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    // id дизайна -> размер файла на реплике (-1, если реплика размер не сообщает); null — список недоступен
+    private Map<String, Long> listRemote(String replicaUrl) {
+        try {
+            JsonNode response = restTemplate.getForObject(replicaUrl + "/api/designs", JsonNode.class);
+            if (response == null || !response.path("designs").isArray()) {
+                return null;
+            }
+            Map<String, Long> remote = new HashMap<>();
+            for (JsonNode design : response.path("designs")) {
+                remote.put(design.path("id").asText(), design.path("size").asLong(-1));
+            }
+            return remote;
+        } catch (RestClientException e) {
+            logger.warning("Не удалось получить список дизайнов " + replicaUrl + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Удаляет файлы дизайнов на репликах. Неудавшиеся удаления остаются в манифесте
+    // и повторяются при следующей сверке. Возвращает true, если манифест изменился
+    private boolean deleteFromReplicas(Set<String> designIds) {
+        boolean changed = false;
+        for (MlReplica replica : mlServiceClient.getReplicas()) {
+            Map<String, String> synced = manifest.replicas.get(replica.getUrl());
+            if (synced == null || !replica.isHealthy()) {
+                continue;
+            }
+            for (String designId : designIds) {
+                if (synced.containsKey(designId) && deleteRemote(replica.getUrl(), designId)) {
+                    synced.remove(designId);
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private boolean deleteRemote(String replicaUrl, String designId) {
+        try {
+            restTemplate.delete(replicaUrl + "/api/designs/{id}", designId);
+            logger.info("Дизайн " + designId + " удалён из " + replicaUrl);
+            return true;
+        } catch (RestClientException e) {
+            logger.warning("Ошибка удаления дизайна " + designId + " из " + replicaUrl + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean upload(String replicaUrl, String designId, Path file) {
+        MultiValueMap<String, Object> body = new LinkedMultiValueMap<>();
+        body.add("design_file", new FileSystemResource(file));
+        body.add("design_id", designId);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.MULTIPART_FORM_DATA);
+
+        try {
+            Map<?, ?> response = restTemplate.postForObject(
+                    replicaUrl + "/api/upload-design", new HttpEntity<>(body, headers), Map.class);
+            if (response != null && "success".equals(response.get("status"))) {
+                uploadedCounter.increment();
+                logger.info("Дизайн " + designId + " выгружен в " + replicaUrl);
+                return true;
+            }
+            logger.warning("ML сервис " + replicaUrl + " отклонил дизайн " + designId + ": "
+                    + (response != null ? response.get("message") : "пустой ответ"));
+        } catch (RestClientException e) {
+            logger.warning("Ошибка выгрузки дизайна " + designId + " в " + replicaUrl + ": " + e.getMessage());
+        }
+        failedCounter.increment();
+        return false;
+    }
+
+    private void saveManifest() {
+        Path file = Paths.get(manifestPath);
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), "manifest_", ".part");
+            objectMapper.writeValue(tmp.toFile(), manifest);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warning("Не удалось сохранить манифест синхронизации дизайнов: " + e.getMessage());
+        }
+    }
+
+    private static String checksum(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public static class Manifest {
+        public Map<String, FileEntry> files = new HashMap<>();
+        public Map<String, Map<String, String>> replicas = new HashMap<>();
+    }
+
+    public static class FileEntry {
+        public long size;
+        public long modified;
+        public String checksum;
+
+        static FileEntry of(Path file) throws IOException {
+            FileEntry entry = new FileEntry();
+            entry.size = Files.size(file);
+            entry.modified = Files.getLastModifiedTime(file).toMillis();
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,482 @@
+package com.example.nail_design_api.service;
+
+import com.example.nail_design_api.model.Design;
+import com.example.nail_design_api.model.User;
+import com.example.nail_design_api.model.UserSummary;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+// Массовый импорт дизайнов из ZIP: изображения и манифест (manifest.json или manifest.csv).
+// Архив читается потоком, изображения сохраняются и уменьшаются в пуле потоков параллельно с чтением,
+// документы пишутся пачками insertMany, а список дизайнов мастера обновляется одним запросом в конце
+@Service
+public class DesignImportService {
+
+    private static final Logger logger = Logger.getLogger(DesignImportService.class.getName());
+
+    private static final Set<String> IMAGE_EXTENSIONS = Set.of("jpg", "jpeg", "png", "gif", "webp", "bmp");
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MasterStatsService masterStatsService;
+
+    @Autowired
+    private DesignAssetSyncService designAssetSyncService;
+
+    @Autowired
+    private DesignPreviewService designPreviewService;
+
+    @Autowired
+    private PhotoNormalizer photoNormalizer;
+
+    @Value("${upload.path}")
+    private String uploadPath;
+
+    @Value("${design.import.workers:0}")
+    private int workers;
+
+    @Value("${design.import.batch-size:100}")
+    private int batchSize;
+
+    @Value("${design.import.max-designs:1000}")
+    private int maxDesigns;
+
+    @Value("${design.import.max-entry-bytes:10485760}")
+    private long maxEntryBytes;
+
+    @Value("${design.import.thumbnail-edge:400}")
+    private int thumbnailEdge;
+
+    private ExecutorService executor;
+    private Semaphore inFlight;
+
+    @PostConstruct
+    public void start() {
+        int threads = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "design-import-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // ограничивает число прочитанных, но ещё не сохранённых изображений в памяти
+        inFlight = new Semaphore(threads * 2);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    public ImportResult importZip(InputStream body, UserSummary master) throws IOException {
+        Map<String, Future<StoredImage>> images = new LinkedHashMap<>();
+        List<ManifestItem> items = null;
+        ImportResult result = new ImportResult();
+
+        try (ZipInputStream zip = new ZipInputStream(body)) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                String name = baseName(entry.getName());
+                String lower = name.toLowerCase(Locale.ROOT);
+                if (lower.equals("manifest.json") || lower.equals("manifest.csv")) {
+                    String text = new String(readEntry(zip, name), StandardCharsets.UTF_8);
+                    items = lower.endsWith(".json") ? parseJson(text) : parseCsv(text);
+                } else if (IMAGE_EXTENSIONS.contains(extension(lower))) {
+                    if (images.size() >= maxDesigns) {
+                        throw new IllegalArgumentException("Архив содержит больше " + maxDesigns + " изображений");
+                    }
+                    // манифест ссылается на изображение по имени без папок: второй файл с тем же именем
+                    // подменил бы первый, а сохранённый первым файл остался бы на диске
+                    if (images.containsKey(name)) {
+                        throw new IllegalArgumentException("Архив содержит несколько изображений с именем " + name);
+                    }
+                    byte[] bytes = readEntry(zip, name);
+                    acquire();
+                    images.put(name, executor.submit(() -> {
+                        try {
+                            return storeImage(name, bytes);
+                        } finally {
+                            inFlight.release();
+                        }
+                    }));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            discard(images.values());
+            throw e;
+        }
+
+        if (items == null) {
+            discard(images.values());
+            throw new IllegalArgumentException("В архиве нет manifest.json или manifest.csv");
+        }
+
+        List<Design> designs = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        Set<String> used = new HashSet<>();
+        for (int i = 0; i < items.size(); i++) {
+            ManifestItem item = items.get(i);
+            String error = item.validate();
+            Future<StoredImage> image = item.image != null ? images.get(baseName(item.image)) : null;
+            if (error == null && image == null) {
+                error = "Изображение " + item.image + " не найдено в архиве";
+            }
+            if (error == null && !used.add(baseName(item.image))) {
+                error = "Изображение " + item.image + " уже использовано другим дизайном";
+            }
+            if (error == null) {
+                try {
+                    designs.add(item.toDesign(image.get(), master));
+                    indexes.add(i);
+                    continue;
+                } catch (ExecutionException e) {
+                    error = "Не удалось обработать изображение: " + e.getCause().getMessage();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    error = "Импорт прерван";
+                }
+            }
+            result.addError(i, item.image, error);
+        }
+
+        // изображения без записи в манифесте не нужны
+        images.forEach((name, image) -> {
+            if (!used.contains(name)) {
+                discard(List.of(image));
+            }
+        });
+
+        List<Design> inserted = new ArrayList<>();
+        for (int from = 0; from < designs.size(); from += batchSize) {
+            List<Design> batch = designs.subList(from, Math.min(designs.size(), from + batchSize));
+            try {
+                inserted.addAll(mongoTemplate.insert(new ArrayList<>(batch), Design.class));
+            } catch (DataAccessException e) {
+                logger.warning("Ошибка записи пачки импортируемых дизайнов: " + e.getMessage());
+                for (int j = 0; j < batch.size(); j++) {
+                    Design design = batch.get(j);
+                    deleteFiles(design.getImagePath(), design.getThumbnailPath());
+                    result.addError(indexes.get(from + j), items.get(indexes.get(from + j)).image,
+                            "Ошибка сохранения дизайна");
+                }
+            }
+        }
+
+        if (!inserted.isEmpty()) {
+            List<String> ids = inserted.stream().map(Design::getId).toList();
+            mongoTemplate.updateFirst(Query.query(where("username").is(master.getUsername())),
+                    new Update().addToSet("createdDesignIds").each(ids.toArray()), User.class);
+            masterStatsService.onDesignsCreated(master.getUsername(), inserted);
+            for (String id : ids) {
+                designAssetSyncService.scheduleSync(id).thenRun(() -> designPreviewService.schedule(id));
+            }
+            result.designIds.addAll(ids);
+        }
+
+        result.errors.sort(Comparator.comparingInt(error -> (Integer) error.get("index")));
+        logger.info("Импорт дизайнов мастера " + master.getUsername() + ": создано " + inserted.size()
+                + ", ошибок " + result.errors.size());
+        return result;
+    }
+
+    private StoredImage storeImage(String name, byte[] bytes) throws IOException {
+        // ограничение на байты в архиве не ограничивает число пикселей после декодирования
+        photoNormalizer.checkPixels(bytes);
+        BufferedImage source = ImageIO.read(new ByteArrayInputStream(bytes));
+        if (source == null) {
+            throw new IOException("неподдерживаемый формат изображения");
+        }
+
+        String uuid = UUID.randomUUID().toString();
+        String fileName = uuid + "_" + name;
+        String thumbnailName = "thumb_" + uuid + "_" + stripExtension(name) + ".jpg";
+
+        double scale = Math.min(1.0, (double) thumbnailEdge / Math.max(source.getWidth(), source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = thumbnail.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(source, 0, 0, width, height, java.awt.Color.WHITE, null);
+        } finally {
+            g.dispose();
+        }
+
+        Path imagePath = Paths.get(uploadPath, fileName);
+        Files.createDirectories(imagePath.getParent());
+        Files.write(imagePath, bytes);
+        Files.write(Paths.get(uploadPath, thumbnailName), PhotoNormalizer.encodeJpeg(thumbnail, 0.85f));
+        return new StoredImage(fileName, thumbnailName);
+    }
+
+    private void acquire() throws IOException {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Импорт прерван", e);
+        }
+    }
+
+    private byte[] readEntry(ZipInputStream zip, String name) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = zip.read(buffer)) > 0) {
+            if (out.size() + read > maxEntryBytes) {
+                throw new IllegalArgumentException("Файл " + name + " больше " + maxEntryBytes / (1024 * 1024) + "MB");
+            }
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private void discard(Collection<Future<StoredImage>> images) {
+        for (Future<StoredImage> image : images) {
+            try {
+                StoredImage stored = image.get();
+                deleteFiles(stored.fileName(), stored.thumbnailName());
+            } catch (ExecutionException e) {
+                // файл не был сохранён
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void deleteFiles(String... names) {
+        for (String name : names) {
+            try {
+                Files.deleteIfExists(Paths.get(uploadPath, name));
+            } catch (IOException e) {
+                logger.warning("Не удалось удалить файл импорта " + name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    List<ManifestItem> parseJson(String text) throws IOException {
+        JsonNode root = objectMapper.readTree(text);
+        JsonNode array = root.isArray() ? root : root.path("designs");
+        if (!array.isArray()) {
+            throw new IllegalArgumentException("manifest.json должен содержать массив дизайнов");
+        }
+        List<ManifestItem> items = new ArrayList<>();
+        for (JsonNode node : array) {
+            ManifestItem item = new ManifestItem();
+            item.image = text(node, "image");
+            item.name = text(node, "name");
+            item.description = text(node, "description");
+            item.designType = text(node, "designType");
+            item.occasion = text(node, "occasion");
+            item.length = text(node, "length");
+            item.material = text(node, "material");
+            if (node.path("colors").isArray()) {
+                node.path("colors").forEach(color -> item.colors.add(color.asText()));
+            } else if (text(node, "color") != null) {
+                item.colors.add(text(node, "color"));
+            }
+            items.add(item);
+        }
+        return items;
+    }
+
+    // CSV с заголовком: image,name,description,designType,color,occasion,length,material.
+    // Несколько цветов перечисляются через ';'
+    List<ManifestItem> parseCsv(String text) {
+        List<List<String>> rows = csvRows(text.startsWith("\uFEFF") ? text.substring(1) : text);
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+        List<String> header = rows.get(0).stream().map(String::trim).toList();
+        List<ManifestItem> items = new ArrayList<>();
+        for (List<String> row : rows.subList(1, rows.size())) {
+            if (row.size() == 1 && row.get(0).isBlank()) {
+                continue;
+            }
+            Map<String, String> values = new HashMap<>();
+            for (int i = 0; i < header.size() && i < row.size(); i++) {
+                values.put(header.get(i), row.get(i).isBlank() ? null : row.get(i).trim());
+            }
+            ManifestItem item = new ManifestItem();
+            item.image = values.get("image");
+            item.name = values.get("name");
+            item.description = values.get("description");
+            item.designType = values.get("designType");
+            item.occasion = values.get("occasion");
+            item.length = values.get("length");
+            item.material = values.get("material");
+            String colors = values.getOrDefault("colors", values.get("color"));
+            if (colors != null) {
+                Arrays.stream(colors.split(";")).map(String::trim).filter(c -> !c.isEmpty()).forEach(item.colors::add);
+            }
+            items.add(item);
+        }
+        return items;
+    }
+
+    private static List<List<String>> csvRows(String text) {
+        List<List<String>> rows = new ArrayList<>();
+        List<String> row = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                row.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == '\r') {
+                if (c == '\r' && i + 1 < text.length() && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                row.add(field.toString());
+                field.setLength(0);
+                rows.add(row);
+                row = new ArrayList<>();
+            } else {
+                field.append(c);
+            }
+        }
+        if (field.length() > 0 || !row.isEmpty()) {
+            row.add(field.toString());
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static String text(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return value == null || value.isNull() || value.asText().isBlank() ? null : value.asText().trim();
+    }
+
+    // из имени записи берётся только имя файла, чтобы пути вида ../ не выходили за каталог загрузок
+    private static String baseName(String entryName) {
+        String name = entryName.replace('\\', '/');
+        name = name.substring(name.lastIndexOf('/') + 1);
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1);
+    }
+
+    private static String stripExtension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? name : name.substring(0, dot);
+    }
+
+    private record StoredImage(String fileName, String thumbnailName) {
+    }
+
+    static class ManifestItem {
+        String image;
+        String name;
+        String description;
+        String designType;
+        String occasion;
+        String length;
+        String material;
+        final List<String> colors = new ArrayList<>();
+
+        String validate() {
+            if (image == null) {
+                return "Не указано изображение";
+            }
+            if (name == null) {
+                return "Название дизайна обязательно";
+            }
+            if (description == null) {
+                return "Описание дизайна обязательно";
+            }
+            return null;
+        }
+
+        Design toDesign(StoredImage image, UserSummary master) {
+            Design design = new Design();
+            design.setName(name);
+            design.setDescription(description);
+            design.setColors(List.copyOf(colors));
+            design.setDesignType(designType);
+            design.setOccasion(occasion);
+            design.setLength(length);
+            design.setMaterial(material);
+            design.setImagePath(image.fileName());
+            design.setThumbnailPath(image.thumbnailName());
+            design.setCreatedBy(master.getUsername());
+            design.setSalonName(master.getSalonName());
+            return design;
+        }
+    }
+
+    public static class ImportResult {
+        private final List<String> designIds = new ArrayList<>();
+        private final List<Map<String, Object>> errors = new ArrayList<>();
+
+        void addError(int index, String image, String message) {
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("index", index);
+            error.put("image", image);
+            error.put("error", message);
+            errors.add(error);
+        }
+
+        public List<String> getDesignIds() {
+            return designIds;
+        }
+
+        public List<Map<String, Object>> getErrors() {
+            return errors;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.nail_design_api.service;
+
+import org.springframework.http.HttpStatus;
+
+// Условное изменение дизайна не применилось: дизайна нет (404), он чужой (403)
+// или его уже изменил другой запрос (409)
+public class DesignMutationException extends RuntimeException {
+
+    private final HttpStatus status;
+
+    public DesignMutationException(HttpStatus status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public HttpStatus getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.nail_design_api.service;
+
+import com.example.nail_design_api.model.Design;
+import com.example.nail_design_api.repository.DesignRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+// Заранее посчитанные примерки каждого дизайна на наборе эталонных фото рук (разные оттенки кожи).
+// Рендер идёт в фоне с минимальным приоритетом и только пока у ML сервиса есть запас мощности,
+// чтобы не мешать интерактивным примеркам
+@Service
+public class DesignPreviewService {
+
+    private static final Logger logger = Logger.getLogger(DesignPreviewService.class.getName());
+
+    private static final Pattern SAMPLE_NAME = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+    private static final String PREVIEW_DIR = "previews";
+
+    @Autowired
+    private TryOnService tryOnService;
+
+    @Autowired
+    private MlServiceClient mlServiceClient;
+
+    @Autowired
+    private PhotoNormalizer photoNormalizer;
+
+    @Autowired
+    private DesignRepository designRepository;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${upload.path}")
+    private String uploadPath;
+
+    @Value("${tryon.previews.enabled:true}")
+    private boolean enabled;
+
+    @Value("${tryon.previews.samples-dir:${upload.path}/samples}")
+    private String samplesDir;
+
+    @Value("${tryon.previews.idle-load:0.5}")
+    private double idleLoad;
+
+    @Value("${tryon.previews.idle-wait-ms:2000}")
+    private long idleWaitMs;
+
+    @Value("${tryon.previews.timeout-ms:120000}")
+    private long timeoutMs;
+
+    private final Map<String, HandSample> samples = new LinkedHashMap<>();
+
+    private final LinkedBlockingQueue<String> queue = new LinkedBlockingQueue<>();
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+    private Thread worker;
+    private volatile boolean running = true;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        loadSamples();
+        if (samples.isEmpty()) {
+            logger.info("Эталонные фото рук не найдены в " + samplesDir + ", превью дизайнов не строятся");
+            return;
+        }
+
+        worker = new Thread(this::workLoop, "design-preview");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+        logger.info("Превью дизайнов: эталонные руки " + samples.keySet());
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    public void schedule(String designId) {
+        if (worker != null && designId != null && queued.add(designId)) {
+            queue.add(designId);
+        }
+    }
+
+    @Scheduled(initialDelayString = "${tryon.previews.backfill-initial-delay-ms:60000}",
+            fixedDelayString = "${tryon.previews.backfill-interval-ms:3600000}")
+    public void backfill() {
+        if (worker == null) {
+            return;
+        }
+        for (Design design : designRepository.findAll()) {
+            if (!missingSamples(design).isEmpty()) {
+                schedule(design.getId());
+            }
+        }
+    }
+
+    public void deletePreviews(String designId) {
+        Path dir = Paths.get(uploadPath, PREVIEW_DIR);
+        if (designId == null || !Files.isDirectory(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.filter(f -> f.getFileName().toString().startsWith(designId + "_")).toList()) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            logger.warning("Не удалось удалить превью дизайна " + designId + ": " + e.getMessage());
+        }
+    }
+
+    private void loadSamples() {
+        Path dir = Paths.get(samplesDir);
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.sorted().toList()) {
+                String fileName = file.getFileName().toString();
+                int dot = fileName.lastIndexOf('.');
+                String name = dot > 0 ? fileName.substring(0, dot) : fileName;
+                String ext = dot > 0 ? fileName.substring(dot + 1).toLowerCase() : "";
+                if (!Files.isRegularFile(file) || !SAMPLE_NAME.matcher(name).matches()
+                        || !Set.of("jpg", "jpeg", "png").contains(ext)) {
+                    continue;
+                }
+                byte[] photo = photoNormalizer.normalize(Files.readAllBytes(file));
+                samples.put(name, new HandSample(photo, fileName, TryOnRequest.sha256(photo)));
+            }
+        } catch (IOException e) {
+            logger.warning("Ошибка чтения эталонных фото рук: " + e.getMessage());
+        }
+    }
+
+    private void workLoop() {
+        while (running) {
+            String designId;
+            try {
+                designId = queue.take();
+                queued.remove(designId);
+                render(designId);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.warning("Ошибка построения превью: " + e.getMessage());
+            }
+        }
+    }
+
+    private void render(String designId) throws InterruptedException {
+        Design design = designRepository.findById(designId).orElse(null);
+        if (design == null) {
+            return;
+        }
+
+        for (String sample : missingSamples(design)) {
+            while (!mlServiceClient.hasSpareCapacity(idleLoad)) {
+                Thread.sleep(idleWaitMs);
+            }
+
+            HandSample hand = samples.get(sample);
+            TryOnRequest request = TryOnRequest.ofPreparedPhoto(
+                    hand.photo(), hand.photoHash(), hand.filename(), designId, 0.4, 0.9);
+            request.setDeadline(Deadline.after(timeoutMs));
+            try {
+                byte[] result = tryOnService.tryOn(request);
+                String fileName = PREVIEW_DIR + "/" + designId + "_" + sample + ".jpg";
+                write(Paths.get(uploadPath, fileName), result);
+                // обновление по имени коллекции не увеличивает версию: превью не конфликтует с правками мастера
+                mongoTemplate.updateFirst(Query.query(where("_id").is(designId)),
+                        new Update().set("previews." + sample, fileName), mongoTemplate.getCollectionName(Design.class));
+            } catch (MlServiceException e) {
+                // недостающие превью достроит следующий проход backfill
+                logger.warning("Превью дизайна " + designId + " на руке " + sample + " не построено: " + e.getMessage());
+                return;
+            } catch (IOException e) {
+                logger.warning("Не удалось сохранить превью дизайна " + designId + ": " + e.getMessage());
+                return;
+            }
+        }
+        logger.info("Превью дизайна " + designId + " построены");
+    }
+
+    private List<String> missingSamples(Design design) {
+        Map<String, String> existing = design.getPreviews() != null ? design.getPreviews() : Map.of();
+        return samples.keySet().stream().filter(name -> !existing.containsKey(name)).toList();
+    }
+
+    private static void write(Path file, byte[] data) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), "tmp_", ".part");
+        Files.write(tmp, data);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private record HandSample(byte[] photo, String filename, String photoHash) {
+    }
+}
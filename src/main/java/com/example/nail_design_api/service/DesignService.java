@@ -1,11 +1,21 @@
 package com.example.nail_design_api.service;
 
+import com.example.nail_design_api.dto.DesignBulkDto;
 import com.example.nail_design_api.dto.DesignDTO;
 import com.example.nail_design_api.dto.DesignFilterDto;
 import com.example.nail_design_api.model.Design;
+import com.example.nail_design_api.model.User;
 import com.example.nail_design_api.repository.DesignRepository;
+import com.mongodb.bulk.BulkWriteResult;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -13,15 +23,28 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
 @Service
+@Timed(value = "app.service", histogram = true)
 public class DesignService {
 
     @Autowired
     private DesignRepository designRepository;
+    @Autowired
+    private TryOnResultCache tryOnResultCache;
+    @Autowired
+    private DesignAssetSyncService designAssetSyncService;
+    @Autowired
+    private DesignPreviewService designPreviewService;
+    @Autowired
+    private MasterStatsService masterStatsService;
+    @Autowired
+    private MongoTemplate mongoTemplate;
     @Value("${upload.path}")
     private String uploadPath;
     @Value("${server.url}")
@@ -89,6 +112,9 @@ public class DesignService {
         design.setSalonName(salonName);
 
         design = designRepository.save(design);
+        masterStatsService.onDesignCreated(design);
+        String designId = design.getId();
+        designAssetSyncService.scheduleSync(designId).thenRun(() -> designPreviewService.schedule(designId));
         return convertToDTO(design);
     }
 
@@ -104,10 +130,16 @@ public class DesignService {
         dto.setMaterial(d.getMaterial());
         dto.setCreatedBy(d.getCreatedBy());
         dto.setSalonName(d.getSalonName());
+        dto.setVersion(d.getVersion() == null ? 0 : d.getVersion());
 
         String base = serverUrl.endsWith("/") ? serverUrl.substring(0, serverUrl.length() - 1) : serverUrl;
         dto.setImagePath(base + "/uploads/" + d.getImagePath());
         dto.setThumbnailPath(base + "/uploads/" + d.getThumbnailPath());
+        if (d.getPreviews() != null) {
+            Map<String, String> previews = new LinkedHashMap<>();
+            d.getPreviews().forEach((sample, path) -> previews.put(sample, base + "/uploads/" + path));
+            dto.setPreviews(previews);
+        }
         return dto;
     }
 
@@ -116,10 +148,28 @@ public class DesignService {
         return convertToDTOList(designs);
     }
 
-    public DesignDTO updateDesign(DesignDTO designDTO) {
-        Design design = designRepository.findById(designDTO.getId())
-                .orElseThrow(() -> new RuntimeException("Design not found"));
+    // Одно атомарное findAndModify с условием на владельца и, если клиент прислал версию, на неё.
+    // Возвращается прежний документ: из него берутся старые тип и цвета для статистики
+    public DesignDTO updateDesign(String username, DesignDTO designDTO) {
+        Update update = new Update()
+                .set("name", designDTO.getName())
+                .set("description", designDTO.getDescription())
+                .set("colors", designDTO.getColors())
+                .set("designType", designDTO.getDesignType())
+                .set("occasion", designDTO.getOccasion())
+                .set("length", designDTO.getLength())
+                .set("material", designDTO.getMaterial())
+                .inc("version", 1);
+
+        Design previous = mongoTemplate.findAndModify(
+                ownedQuery(designDTO.getId(), username, designDTO.getVersion()), update, Design.class);
+        if (previous == null) {
+            throw mutationFailure(designDTO.getId(), username);
+        }
 
+        Design design = previous;
+        String oldType = previous.getDesignType();
+        List<String> oldColors = previous.getColors();
         design.setName(designDTO.getName());
         design.setDescription(designDTO.getDescription());
         design.setColors(designDTO.getColors());
@@ -127,67 +177,134 @@ public class DesignService {
         design.setOccasion(designDTO.getOccasion());
         design.setLength(designDTO.getLength());
         design.setMaterial(designDTO.getMaterial());
+        design.setVersion(previous.getVersion() == null ? 1 : previous.getVersion() + 1);
 
-        design = designRepository.save(design);
+        masterStatsService.onDesignChanged(username, oldType, oldColors,
+                design.getDesignType(), design.getColors());
         return convertToDTO(design);
     }
 
-    public void deleteDesign(String id) {
-        designRepository.deleteById(id);
+    public void deleteDesign(String username, String id, Long version) {
+        Design removed = mongoTemplate.findAndRemove(ownedQuery(id, username, version), Design.class);
+        if (removed == null) {
+            throw mutationFailure(id, username);
+        }
+        mongoTemplate.updateFirst(Query.query(Criteria.where("username").is(username)),
+                new Update().pull("createdDesignIds", id), User.class);
+        masterStatsService.onDesignDeleted(removed);
+        tryOnResultCache.invalidateDesign(id);
+        designAssetSyncService.forget(id);
+        designPreviewService.deletePreviews(id);
     }
 
+    private static Query ownedQuery(String id, String username, Long version) {
+        Criteria criteria = Criteria.where("_id").is(id).and("createdBy").is(username);
+        if (version != null) {
+            // у дизайнов, созданных до появления версий, поля нет — для них это версия 0
+            criteria = version == 0 ? criteria.and("version").in(0L, null) : criteria.and("version").is(version);
+        }
+        return Query.query(criteria);
+    }
 
-    private List<DesignDTO> convertToDTOList(List<Design> list) {
-        return list.stream().map(this::convertToDTO).toList();
+    // Причину неудачи выясняем только на редком пути, когда условие не совпало
+    private DesignMutationException mutationFailure(String id, String username) {
+        Query query = Query.query(Criteria.where("_id").is(id));
+        query.fields().include("createdBy");
+        Design current = mongoTemplate.findOne(query, Design.class);
+        if (current == null) {
+            return new DesignMutationException(HttpStatus.NOT_FOUND, "Дизайн не найден");
+        }
+        if (!username.equals(current.getCreatedBy())) {
+            return new DesignMutationException(HttpStatus.FORBIDDEN, "Вы можете изменять только свои дизайны");
+        }
+        return new DesignMutationException(HttpStatus.CONFLICT, "Дизайн был изменён другим запросом, обновите данные");
     }
 
-    public List<DesignDTO> filterDesigns(DesignFilterDto filter) {
-        List<Design> filteredDesigns;
-
-        if ((filter.getColors() == null || filter.getColors().isEmpty()) &&
-                (filter.getStyles() == null || filter.getStyles().isEmpty()) &&
-                (filter.getSeasons() == null || filter.getSeasons().isEmpty()) &&
-                (filter.getTypes() == null || filter.getTypes().isEmpty())) {
-            filteredDesigns = designRepository.findAll();
-        } else {
-            List<String> colors = filter.getColors() != null ? filter.getColors() : List.of();
-            List<String> styles = filter.getStyles() != null ? filter.getStyles() : List.of();
-            List<String> seasons = filter.getSeasons() != null ? filter.getSeasons() : List.of();
-            List<String> types = filter.getTypes() != null ? filter.getTypes() : List.of();
-
-            if (!colors.isEmpty() || !styles.isEmpty() || !seasons.isEmpty() || !types.isEmpty()) {
-                List<Design> result = designRepository.findAll();
-
-                if (!colors.isEmpty()) {
-                    result = result.stream()
-                            .filter(d -> d.getColors().stream().anyMatch(colors::contains))
-                            .toList();
-                }
+    // Массовое изменение атрибутов: один bulkWrite, каждая операция отфильтрована по владельцу,
+    // поэтому чужие и несуществующие дизайны просто не совпадают
+    public BulkWriteResult bulkUpdate(String username, List<DesignBulkDto.Item> items) {
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Design.class);
+        boolean statsAffected = false;
+        for (DesignBulkDto.Item item : items) {
+            if (item.getId() == null || item.getChanges() == null || item.getChanges().isEmpty()) {
+                throw new IllegalArgumentException("Для каждого дизайна нужны id и изменения");
+            }
+            Update update = new Update().inc("version", 1);
+            item.getChanges().forEach((field, value) -> update.set(field, bulkValue(field, value)));
+            statsAffected |= item.getChanges().containsKey("designType") || item.getChanges().containsKey("colors");
+            bulk.updateOne(Query.query(Criteria.where("_id").is(item.getId()).and("createdBy").is(username)), update);
+        }
+        BulkWriteResult result = bulk.execute();
 
-                if (!styles.isEmpty()) {
-                    result = result.stream()
-                            .filter(d -> styles.contains(d.getDesignType()))
-                            .toList();
-                }
+        // bulkValue допускает только атрибуты, изображение не меняется: кэш примерок остаётся верным
+        if (statsAffected && result.getModifiedCount() > 0) {
+            masterStatsService.rebuild(username);
+        }
+        return result;
+    }
 
-                if (!seasons.isEmpty()) {
-                    result = result.stream()
-                            .filter(d -> seasons.contains(d.getOccasion()))
-                            .toList();
-                }
+    // Удаляет только дизайны мастера и одним $pull убирает их из его списка созданных
+    public List<String> bulkDelete(String username, List<String> ids) {
+        List<Design> removed = mongoTemplate.findAllAndRemove(
+                Query.query(Criteria.where("_id").in(ids).and("createdBy").is(username)), Design.class);
+        if (removed.isEmpty()) {
+            return List.of();
+        }
+        List<String> removedIds = removed.stream().map(Design::getId).toList();
+        mongoTemplate.updateFirst(Query.query(Criteria.where("username").is(username)),
+                new Update().pullAll("createdDesignIds", removedIds.toArray()), User.class);
+        masterStatsService.onDesignsDeleted(username, removed);
+        for (String id : removedIds) {
+            tryOnResultCache.invalidateDesign(id);
+            designAssetSyncService.forget(id);
+            designPreviewService.deletePreviews(id);
+        }
+        return removedIds;
+    }
 
-                if (!types.isEmpty()) {
-                    result = result.stream()
-                            .filter(d -> types.contains(d.getLength()))
-                            .toList();
+    private static Object bulkValue(String field, Object value) {
+        switch (field) {
+            case "name", "description" -> {
+                if (!(value instanceof String text) || text.trim().isEmpty()) {
+                    throw new IllegalArgumentException("Поле " + field + " не может быть пустым");
                 }
-
-                filteredDesigns = result;
-            } else {
-                filteredDesigns = designRepository.findAll();
+                return text.trim();
+            }
+            case "designType", "occasion", "length", "material" -> {
+                if (value != null && !(value instanceof String)) {
+                    throw new IllegalArgumentException("Поле " + field + " должно быть строкой");
+                }
+                return value;
+            }
+            case "colors" -> {
+                if (!(value instanceof List<?> colors) || !colors.stream().allMatch(String.class::isInstance)) {
+                    throw new IllegalArgumentException("Поле colors должно быть списком строк");
+                }
+                return colors;
             }
+            default -> throw new IllegalArgumentException("Поле " + field + " нельзя изменять массово");
         }
+    }
+
+    private List<DesignDTO> convertToDTOList(List<Design> list) {
+        return list.stream().map(this::convertToDTO).toList();
+    }
 
-        return convertToDTOList(filteredDesigns);
+    // Фильтр выполняется в MongoDB, чтобы работали индексы по полям фасетов (см. MongoIndexManager)
+    public List<DesignDTO> filterDesigns(DesignFilterDto filter) {
+        Criteria criteria = new Criteria();
+        if (filter.getColors() != null && !filter.getColors().isEmpty()) {
+            criteria = criteria.and("colors").in(filter.getColors());
+        }
+        if (filter.getStyles() != null && !filter.getStyles().isEmpty()) {
+            criteria = criteria.and("designType").in(filter.getStyles());
+        }
+        if (filter.getSeasons() != null && !filter.getSeasons().isEmpty()) {
+            criteria = criteria.and("occasion").in(filter.getSeasons());
+        }
+        if (filter.getTypes() != null && !filter.getTypes().isEmpty()) {
+            criteria = criteria.and("length").in(filter.getTypes());
+        }
+        return convertToDTOList(mongoTemplate.find(Query.query(criteria), Design.class));
     }
 }
@@ -4,6 +4,7 @@ import com.example.nail_design_api.dto.DesignDTO;
 import com.example.nail_design_api.model.User;
 import com.example.nail_design_api.repository.DesignRepository;
 import com.example.nail_design_api.repository.UserRepository;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
@@ -14,12 +15,15 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
+@Timed(value = "app.service", histogram = true)
 public class FavoritesService {
     @Autowired
     private UserRepository userRepository;
 
     @Autowired
     private DesignRepository designRepository;
+    @Autowired
+    private MasterStatsService masterStatsService;
     @Value("${server.url}")
     private String serverUrl;
 
@@ -106,6 +110,7 @@ public class FavoritesService {
             if (wasAdded) {
                 user.setFavoriteDesignIds(favIds);
                 userRepository.save(user);
+                masterStatsService.onFavoriteChanged(designId, 1);
                 System.out.println("Добавлен дизайн " + designId + " в избранное пользователя " + username + " (ID: " + user.getId() + ")");
             } else {
                 System.out.println("Дизайн " + designId + " уже в избранном пользователя " + username);
@@ -126,6 +131,7 @@ public class FavoritesService {
                 if (wasRemoved) {
                     user.setFavoriteDesignIds(favIds);
                     userRepository.save(user);
+                    masterStatsService.onFavoriteChanged(designId, -1);
                     System.out.println("Удален дизайн " + designId + " из избранного пользователя " + username + " (ID: " + user.getId() + ")");
                 } else {
                     System.out.println("Дизайн " + designId + " не был в избранном пользователя " + username);
@@ -0,0 +1,286 @@
+package com.example.nail_design_api.service;
+
+import com.example.nail_design_api.model.Design;
+import com.example.nail_design_api.model.MasterStats;
+import com.example.nail_design_api.model.User;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+// Статистика мастера хранится готовым документом и поддерживается атомарными $inc
+// при изменении дизайнов, избранного и примерок. Пересчёт агрегацией нужен только для
+// первого чтения и сверки. Документ, созданный одними $inc (rebuiltAt пуст), неполон
+// и при чтении пересчитывается
+@Service
+public class MasterStatsService {
+
+    private static final Logger logger = Logger.getLogger(MasterStatsService.class.getName());
+
+    private static final int REBUILD_ATTEMPTS = 3;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    // примерки частые, поэтому счётчики копятся в памяти и сбрасываются в Mongo пачкой
+    private final ConcurrentHashMap<String, LongAdder> pendingTryOns = new ConcurrentHashMap<>();
+
+    public MasterStats getStats(String username) {
+        MasterStats stats = mongoTemplate.findById(username, MasterStats.class);
+        return stats != null && stats.getRebuiltAt() != null ? stats : rebuild(username);
+    }
+
+    public void onDesignCreated(Design design) {
+        onDesignsCreated(design.getCreatedBy(), List.of(design));
+    }
+
+    public void onDesignsCreated(String username, Collection<Design> designs) {
+        Map<String, Long> deltas = new HashMap<>();
+        for (Design design : designs) {
+            addDesignDeltas(deltas, design.getDesignType(), design.getColors(), 1);
+        }
+        deltas.put("totalDesigns", (long) designs.size());
+        apply(username, deltas, null);
+    }
+
+    public void onDesignChanged(String username, String oldType, List<String> oldColors,
+                                String newType, List<String> newColors) {
+        Map<String, Long> deltas = new HashMap<>();
+        addDesignDeltas(deltas, oldType, oldColors, -1);
+        addDesignDeltas(deltas, newType, newColors, 1);
+        apply(username, deltas, null);
+    }
+
+    public void onDesignDeleted(Design design) {
+        onDesignsDeleted(design.getCreatedBy(), List.of(design));
+    }
+
+    public void onDesignsDeleted(String username, Collection<Design> designs) {
+        Map<String, Long> deltas = new HashMap<>();
+        for (Design design : designs) {
+            addDesignDeltas(deltas, design.getDesignType(), design.getColors(), -1);
+        }
+        deltas.put("totalDesigns", -(long) designs.size());
+        apply(username, deltas, designs.stream().map(Design::getId).toList());
+    }
+
+    public void onFavoriteChanged(String designId, int delta) {
+        String creator = findCreator(designId);
+        if (creator != null) {
+            apply(creator, Map.of("favoritesByDesign." + designId, (long) delta), null);
+        }
+    }
+
+    public void recordTryOn(String designId) {
+        if (designId != null) {
+            pendingTryOns.computeIfAbsent(designId, id -> new LongAdder()).increment();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${stats.tryon-flush-interval-ms:10000}")
+    public void flushTryOns() {
+        if (pendingTryOns.isEmpty()) {
+            return;
+        }
+        // счётчики не удаляются: recordTryOn мог уже получить удаляемый и увеличить его после подсчёта.
+        // sumThenReset обнуляет ячейки по одной атомарно, поэтому примерка попадёт в этот сброс или в следующий
+        Map<String, Long> counts = new HashMap<>();
+        pendingTryOns.forEach((designId, adder) -> {
+            long count = adder.sumThenReset();
+            if (count != 0) {
+                counts.put(designId, count);
+            }
+        });
+        if (counts.isEmpty()) {
+            return;
+        }
+
+        Query designs = Query.query(where("_id").in(counts.keySet()));
+        designs.fields().include("createdBy");
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MasterStats.class);
+        int updates = 0;
+        for (Design design : mongoTemplate.find(designs, Design.class)) {
+            if (design.getCreatedBy() != null) {
+                bulk.upsert(Query.query(where("_id").is(design.getCreatedBy())),
+                        new Update().inc("tryOnsByDesign." + design.getId(), counts.get(design.getId()))
+                                .inc("revision", 1));
+                updates++;
+            }
+        }
+        if (updates > 0) {
+            bulk.execute();
+        }
+    }
+
+    // Полный пересчёт агрегацией. Число примерок из данных не восстановить, поэтому оно сохраняется.
+    // Результат записывается условно по revision: если между чтением и записью пришёл $inc,
+    // пересчёт повторяется, чтобы не затереть его
+    public MasterStats rebuild(String username) {
+        MasterStats stats = null;
+        for (int attempt = 1; attempt <= REBUILD_ATTEMPTS; attempt++) {
+            MasterStats previous = mongoTemplate.findById(username, MasterStats.class);
+            stats = aggregateStats(username, previous);
+            if (saveRebuilt(stats, previous)) {
+                logger.info("Статистика мастера " + username + " пересчитана: " + stats.getTotalDesigns() + " дизайнов");
+                return stats;
+            }
+        }
+        logger.warning("Статистика мастера " + username + " менялась во время пересчёта, сохранённый документ не обновлён");
+        return stats;
+    }
+
+    private MasterStats aggregateStats(String username, MasterStats previous) {
+        MasterStats stats = new MasterStats(username);
+
+        for (Document row : aggregate(newAggregation(
+                match(where("createdBy").is(username)),
+                group("designType").count().as("count")), Design.class)) {
+            stats.getDesignsByType().put(key(row.get("_id")), ((Number) row.get("count")).longValue());
+        }
+        for (Document row : aggregate(newAggregation(
+                match(where("createdBy").is(username)),
+                unwind("colors"),
+                group("colors").count().as("count")), Design.class)) {
+            stats.getDesignsByColor().put(key(row.get("_id")), ((Number) row.get("count")).longValue());
+        }
+
+        Query ownDesigns = Query.query(where("createdBy").is(username));
+        ownDesigns.fields().include("_id");
+        List<String> designIds = mongoTemplate.find(ownDesigns, Design.class).stream().map(Design::getId).toList();
+        stats.setTotalDesigns(designIds.size());
+
+        if (!designIds.isEmpty()) {
+            for (Document row : aggregate(newAggregation(
+                    match(where("favoriteDesignIds").in(designIds)),
+                    unwind("favoriteDesignIds"),
+                    match(where("favoriteDesignIds").in(designIds)),
+                    group("favoriteDesignIds").count().as("count")), User.class)) {
+                stats.getFavoritesByDesign().put(String.valueOf(row.get("_id")), ((Number) row.get("count")).longValue());
+            }
+        }
+
+        if (previous != null && previous.getTryOnsByDesign() != null) {
+            Set<String> own = new HashSet<>(designIds);
+            previous.getTryOnsByDesign().forEach((designId, count) -> {
+                if (own.contains(designId)) {
+                    stats.getTryOnsByDesign().put(designId, count);
+                }
+            });
+        }
+        stats.setRebuiltAt(Instant.now());
+        return stats;
+    }
+
+    private boolean saveRebuilt(MasterStats stats, MasterStats previous) {
+        Long revision = previous != null ? previous.getRevision() : null;
+        Criteria unchanged = revision != null ? where("revision").is(revision) : where("revision").exists(false);
+        Update update = new Update()
+                .set("totalDesigns", stats.getTotalDesigns())
+                .set("designsByType", stats.getDesignsByType())
+                .set("designsByColor", stats.getDesignsByColor())
+                .set("favoritesByDesign", stats.getFavoritesByDesign())
+                .set("tryOnsByDesign", stats.getTryOnsByDesign())
+                .set("rebuiltAt", stats.getRebuiltAt())
+                .inc("revision", 1);
+        Query query = Query.query(where("_id").is(stats.getUsername()).andOperator(unchanged));
+        try {
+            // документа ещё нет: вставка; если его успел создать $inc, вставка упадёт на _id
+            UpdateResult result = previous == null
+                    ? mongoTemplate.upsert(query, update, MasterStats.class)
+                    : mongoTemplate.updateFirst(query, update, MasterStats.class);
+            stats.setRevision((revision != null ? revision : 0) + 1);
+            return result.getMatchedCount() > 0 || result.getUpsertedId() != null;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    // Документа может ещё не быть: upsert создаёт неполный документ (без rebuiltAt), который
+    // пересчитается при первом чтении, а дельта не теряется, если пересчёт идёт прямо сейчас
+    private void apply(String username, Map<String, Long> deltas, List<String> removedDesignIds) {
+        if (username == null) {
+            return;
+        }
+        Update update = deltaUpdate(deltas, removedDesignIds);
+        if (update != null) {
+            mongoTemplate.upsert(Query.query(where("_id").is(username)), update, MasterStats.class);
+        }
+    }
+
+    static Update deltaUpdate(Map<String, Long> deltas, List<String> removedDesignIds) {
+        Update update = new Update();
+        boolean empty = true;
+        for (Map.Entry<String, Long> delta : deltas.entrySet()) {
+            if (delta.getValue() != 0) {
+                update.inc(delta.getKey(), delta.getValue());
+                empty = false;
+            }
+        }
+        if (removedDesignIds != null) {
+            for (String designId : removedDesignIds) {
+                update.unset("favoritesByDesign." + designId).unset("tryOnsByDesign." + designId);
+                empty = false;
+            }
+        }
+        return empty ? null : update.inc("revision", 1);
+    }
+
+    private String findCreator(String designId) {
+        Query query = Query.query(where("_id").is(designId));
+        query.fields().include("createdBy");
+        Design design = mongoTemplate.findOne(query, Design.class);
+        return design != null ? design.getCreatedBy() : null;
+    }
+
+    private List<Document> aggregate(Aggregation aggregation, Class<?> collection) {
+        return mongoTemplate.aggregate(aggregation, collection, Document.class).getMappedResults();
+    }
+
+    static void addDesignDeltas(Map<String, Long> deltas, String type, List<String> colors, long sign) {
+        deltas.merge("designsByType." + key(type), sign, Long::sum);
+        if (colors != null) {
+            for (String color : new HashSet<>(colors)) {
+                deltas.merge("designsByColor." + key(color), sign, Long::sum);
+            }
+        }
+    }
+
+    // Значения становятся ключами вложенного документа, точка и $ в них недопустимы
+    static String key(Object value) {
+        return String.valueOf(value).replace('.', '_').replace('$', '_');
+    }
+
+    // После декрементов в документе остаются нулевые ключи, клиенту они не нужны
+    public static Map<String, Long> positive(Map<String, Long> counts) {
+        Map<String, Long> result = new HashMap<>();
+        if (counts != null) {
+            counts.forEach((key, count) -> {
+                if (count != null && count > 0) {
+                    result.put(key, count);
+                }
+            });
+        }
+        return result;
+    }
+
+    public static long sum(Map<String, Long> counts) {
+        return counts == null ? 0 : counts.values().stream().mapToLong(count -> Math.max(0, count)).sum();
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.nail_design_api.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MlReplica {
+
+    private static final double EWMA_ALPHA = 0.3;
+
+    private final String url;
+    private final CircuitBreaker circuitBreaker;
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    private volatile boolean healthy = true;
+    private double ewmaLatencyMs;
+
+    public MlReplica(String url, CircuitBreaker circuitBreaker) {
+        this.url = url;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    public void setHealthy(boolean healthy) {
+        this.healthy = healthy;
+    }
+
+    public boolean isAvailable() {
+        return healthy && circuitBreaker.getState() != CircuitBreaker.State.OPEN;
+    }
+
+    public synchronized double getEwmaLatencyMs() {
+        return ewmaLatencyMs;
+    }
+
+    double score() {
+        double latency = getEwmaLatencyMs();
+        return (getOutstanding() + 1) * (latency > 0 ? latency : 1.0);
+    }
+
+    void onStart() {
+        outstanding.incrementAndGet();
+    }
+
+    void onFinish(long latencyNanos, boolean recordLatency) {
+        outstanding.decrementAndGet();
+        if (recordLatency) {
+            double sample = latencyNanos / 1_000_000.0;
+            synchronized (this) {
+                ewmaLatencyMs = ewmaLatencyMs == 0 ? sample : EWMA_ALPHA * sample + (1 - EWMA_ALPHA) * ewmaLatencyMs;
+            }
+        }
+    }
+}
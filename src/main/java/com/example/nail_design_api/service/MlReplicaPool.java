@@ -0,0 +1,91 @@
+package com.example.nail_design_api.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+
+public class MlReplicaPool {
+
+    private static final int VIRTUAL_NODES = 100;
+
+    private final List<MlReplica> replicas;
+    private final TreeMap<Long, MlReplica> ring = new TreeMap<>();
+    private final double loadFactor;
+
+    public MlReplicaPool(List<String> urls, Function<String, CircuitBreaker> breakerFactory, double loadFactor) {
+        List<MlReplica> list = new ArrayList<>();
+        for (String url : urls) {
+            MlReplica replica = new MlReplica(url, breakerFactory.apply(url));
+            list.add(replica);
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(url + "#" + i), replica);
+            }
+        }
+        this.replicas = List.copyOf(list);
+        this.loadFactor = loadFactor;
+    }
+
+    public List<MlReplica> getReplicas() {
+        return replicas;
+    }
+
+    public Lease acquire(String affinityKey) {
+        List<MlReplica> available = replicas.stream().filter(MlReplica::isAvailable).toList();
+        if (available.isEmpty()) {
+            return null;
+        }
+
+        if (affinityKey != null && !affinityKey.isEmpty()) {
+            int total = available.stream().mapToInt(MlReplica::getOutstanding).sum();
+            double bound = Math.ceil(loadFactor * (total + 1) / available.size());
+            for (MlReplica replica : ringOrder(affinityKey)) {
+                if (replica.isAvailable() && replica.getOutstanding() < bound) {
+                    CircuitBreaker.Permit permit = replica.getCircuitBreaker().tryAcquire();
+                    if (permit != null) {
+                        return new Lease(replica, permit);
+                    }
+                }
+            }
+        }
+
+        List<MlReplica> byScore = new ArrayList<>(available);
+        byScore.sort(Comparator.comparingDouble(MlReplica::score));
+        for (MlReplica replica : byScore) {
+            CircuitBreaker.Permit permit = replica.getCircuitBreaker().tryAcquire();
+            if (permit != null) {
+                return new Lease(replica, permit);
+            }
+        }
+        return null;
+    }
+
+    // Выбранная реплика и разрешение её автомата, через которое сообщается результат вызова
+    public record Lease(MlReplica replica, CircuitBreaker.Permit permit) {
+    }
+
+    private List<MlReplica> ringOrder(String key) {
+        List<MlReplica> order = new ArrayList<>(replicas.size());
+        long h = hash(key);
+        for (MlReplica replica : ring.tailMap(h).values()) {
+            if (!order.contains(replica)) {
+                order.add(replica);
+                if (order.size() == replicas.size()) {
+                    return order;
+                }
+            }
+        }
+        for (MlReplica replica : ring.headMap(h).values()) {
+            if (!order.contains(replica)) {
+                order.add(replica);
+                if (order.size() == replicas.size()) {
+                    return order;
+                }
+            }
+        }
+        return order;
+    }
+
+    private static long hash(String key) {
+        return Long.parseLong(TryOnRequest.sha256(key.getBytes(StandardCharsets.UTF_8)).substring(0, 15), 16);
+    }
+}
@@ -0,0 +1,505 @@
+package com.example.nail_design_api.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.*;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+@Service
+public class MlServiceClient {
+
+    private static final Logger logger = Logger.getLogger(MlServiceClient.class.getName());
+
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout-Ms";
+
+    @Value("${ml-service.url:http://ml-service:8000}")
+    private String mlServiceUrl;
+
+    @Value("${ml-service.urls:}")
+    private String[] mlServiceUrls;
+
+    @Value("${ml-service.read-timeout-ms:30000}")
+    private long readTimeoutMs;
+
+    @Value("${ml-service.balancer.load-factor:1.25}")
+    private double balancerLoadFactor;
+
+    @Value("${ml-service.health-check.timeout-ms:2000}")
+    private int healthCheckTimeoutMs;
+
+    @Value("${ml-service.limiter.initial-limit:4}")
+    private int initialLimit;
+
+    @Value("${ml-service.limiter.min-limit:1}")
+    private int minLimit;
+
+    @Value("${ml-service.limiter.max-limit:32}")
+    private int maxLimit;
+
+    @Value("${ml-service.limiter.backoff-ratio:0.8}")
+    private double backoffRatio;
+
+    @Value("${ml-service.limiter.latency-threshold-ms:15000}")
+    private long latencyThresholdMs;
+
+    @Value("${ml-service.limiter.acquire-timeout-ms:2000}")
+    private long acquireTimeoutMs;
+
+    @Value("${ml-service.limiter.max-queued:100}")
+    private int maxQueued;
+
+    @Value("${ml-service.circuit-breaker.window-size:20}")
+    private int breakerWindowSize;
+
+    @Value("${ml-service.circuit-breaker.minimum-calls:5}")
+    private int breakerMinimumCalls;
+
+    @Value("${ml-service.circuit-breaker.failure-rate:0.5}")
+    private double breakerFailureRate;
+
+    @Value("${ml-service.circuit-breaker.open-duration-ms:30000}")
+    private long breakerOpenDurationMs;
+
+    @Value("${ml-service.circuit-breaker.half-open-calls:2}")
+    private int breakerHalfOpenCalls;
+
+    @Value("${ml-service.hedging.enabled:false}")
+    private boolean hedgingEnabled;
+
+    @Value("${ml-service.hedging.percentile:0.95}")
+    private double hedgingPercentile;
+
+    @Value("${ml-service.hedging.min-samples:20}")
+    private int hedgingMinSamples;
+
+    @Autowired
+    private WebClient mlWebClient;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final MeterRegistry meterRegistry;
+
+    private AdaptiveConcurrencyLimiter limiter;
+    private MlReplicaPool replicaPool;
+    private RestTemplate healthCheckTemplate;
+    private final LatencyWindow latencies = new LatencyWindow(200);
+    private ExecutorService hedgeExecutor;
+
+    private Counter limiterRejected;
+    private Counter circuitRejected;
+    private Counter hedgedRequests;
+    private Counter deadlineExceeded;
+    private Counter cancelledRequests;
+    private DistributionSummary requestBytes;
+    private DistributionSummary responseBytes;
+    // таймеры по реплике и исходу: регистрация с гистограммой слишком дорога для каждого вызова
+    private final ConcurrentHashMap<String, Timer> requestTimers = new ConcurrentHashMap<>();
+
+    public MlServiceClient(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        limiter = new AdaptiveConcurrencyLimiter(initialLimit, minLimit, maxLimit, backoffRatio, latencyThresholdMs,
+                maxQueued);
+
+        List<String> urls = new ArrayList<>();
+        if (mlServiceUrls != null) {
+            Arrays.stream(mlServiceUrls).map(String::trim).filter(u -> !u.isEmpty()).forEach(urls::add);
+        }
+        if (urls.isEmpty()) {
+            urls.add(mlServiceUrl);
+        }
+        replicaPool = new MlReplicaPool(urls, url -> new CircuitBreaker(breakerWindowSize, breakerMinimumCalls,
+                breakerFailureRate, breakerOpenDurationMs, breakerHalfOpenCalls), balancerLoadFactor);
+
+        SimpleClientHttpRequestFactory healthFactory = new SimpleClientHttpRequestFactory();
+        healthFactory.setConnectTimeout(healthCheckTimeoutMs);
+        healthFactory.setReadTimeout(healthCheckTimeoutMs);
+        healthCheckTemplate = new RestTemplate(healthFactory);
+
+        Gauge.builder("ml.limiter.limit", limiter, AdaptiveConcurrencyLimiter::getLimit).register(meterRegistry);
+        Gauge.builder("ml.limiter.inflight", limiter, AdaptiveConcurrencyLimiter::getInFlight).register(meterRegistry);
+        Gauge.builder("ml.limiter.queued", limiter, AdaptiveConcurrencyLimiter::getQueued).register(meterRegistry);
+        for (MlReplica replica : replicaPool.getReplicas()) {
+            Gauge.builder("ml.circuit.state", replica, r -> r.getCircuitBreaker().getState().ordinal())
+                    .description("0 - закрыт, 1 - открыт, 2 - полуоткрыт")
+                    .tag("replica", replica.getUrl())
+                    .register(meterRegistry);
+            Gauge.builder("ml.replica.outstanding", replica, MlReplica::getOutstanding)
+                    .tag("replica", replica.getUrl())
+                    .register(meterRegistry);
+            Gauge.builder("ml.replica.latency.ewma", replica, MlReplica::getEwmaLatencyMs)
+                    .baseUnit("milliseconds")
+                    .tag("replica", replica.getUrl())
+                    .register(meterRegistry);
+            Gauge.builder("ml.replica.healthy", replica, r -> r.isHealthy() ? 1 : 0)
+                    .tag("replica", replica.getUrl())
+                    .register(meterRegistry);
+        }
+        logger.info("Реплики ML сервиса: " + urls);
+        limiterRejected = Counter.builder("ml.limiter.rejected").register(meterRegistry);
+        circuitRejected = Counter.builder("ml.circuit.rejected").register(meterRegistry);
+        hedgedRequests = Counter.builder("ml.hedge.requests").register(meterRegistry);
+        deadlineExceeded = Counter.builder("ml.deadline.exceeded").register(meterRegistry);
+        cancelledRequests = Counter.builder("ml.requests.cancelled").register(meterRegistry);
+        requestBytes = DistributionSummary.builder("ml.request.payload")
+                .description("Размер фото, отправленного в ML сервис")
+                .baseUnit("bytes")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        responseBytes = DistributionSummary.builder("ml.response.payload")
+                .description("Размер результата примерки от ML сервиса")
+                .baseUnit("bytes")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+
+        if (hedgingEnabled) {
+            AtomicInteger counter = new AtomicInteger();
+            hedgeExecutor = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "ml-hedge-" + counter.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+        }
+    }
+
+    public List<MlReplica> getReplicas() {
+        return replicaPool.getReplicas();
+    }
+
+    // Есть ли запас по лимиту параллельных вызовов: фоновые задачи ждут, пока интерактивная нагрузка спадёт
+    public boolean hasSpareCapacity(double loadRatio) {
+        return limiter.getInFlight() < limiter.getLimit() * loadRatio;
+    }
+
+    public byte[] tryOn(TryOnRequest request) {
+        try {
+            return tryOnAsync(request).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    public CompletableFuture<byte[]> tryOnAsync(TryOnRequest request) {
+        if (hedgeExecutor == null || latencies.size() < hedgingMinSamples) {
+            return guardedCall(request, request.getDesignId(), acquireTimeoutMs);
+        }
+        return hedgedCall(request);
+    }
+
+    @Scheduled(fixedDelayString = "${ml-service.health-check.interval-ms:10000}")
+    public void checkReplicas() {
+        for (MlReplica replica : replicaPool.getReplicas()) {
+            boolean healthy;
+            try {
+                healthy = healthCheckTemplate.getForEntity(replica.getUrl() + "/", String.class)
+                        .getStatusCode().is2xxSuccessful();
+            } catch (RestClientException e) {
+                healthy = false;
+            }
+            if (healthy != replica.isHealthy()) {
+                logger.warning("Реплика ML сервиса " + replica.getUrl() + (healthy ? " снова доступна" : " недоступна"));
+            }
+            replica.setHealthy(healthy);
+        }
+    }
+
+    private CompletableFuture<byte[]> hedgedCall(TryOnRequest request) {
+        long hedgeDelayNanos = latencies.percentile(hedgingPercentile);
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<byte[]>> hedge = new AtomicReference<>();
+        AtomicInteger failures = new AtomicInteger();
+
+        CompletableFuture<byte[]> primary = guardedCall(request, request.getDesignId(), acquireTimeoutMs);
+        primary.whenComplete((value, error) -> onAttemptDone(result, hedge, failures, value, error));
+
+        CompletableFuture.delayedExecutor(hedgeDelayNanos, TimeUnit.NANOSECONDS, hedgeExecutor).execute(() -> {
+            if (result.isDone() || limiter.getInFlight() >= limiter.getLimit()) {
+                return;
+            }
+            hedgedRequests.increment();
+            logger.info("Запрос в ML сервис превысил p" + Math.round(hedgingPercentile * 100) + ", отправляем дублирующий");
+            CompletableFuture<byte[]> second = guardedCall(request, null, 0);
+            hedge.set(second);
+            second.whenComplete((value, error) -> onAttemptDone(result, hedge, failures, value, error));
+        });
+
+        result.whenComplete((value, error) -> {
+            primary.cancel(true);
+            CompletableFuture<byte[]> second = hedge.get();
+            if (second != null) {
+                second.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private void onAttemptDone(CompletableFuture<byte[]> result, AtomicReference<CompletableFuture<byte[]>> hedge,
+                               AtomicInteger failures, byte[] value, Throwable error) {
+        if (error == null) {
+            result.complete(value);
+            return;
+        }
+        int attempts = hedge.get() == null ? 1 : 2;
+        if (failures.incrementAndGet() >= attempts) {
+            result.completeExceptionally(unwrap(error));
+        }
+    }
+
+    // Ожидание места в лимитере не занимает поток запроса: вызов отправляется, когда место освободится
+    private CompletableFuture<byte[]> guardedCall(TryOnRequest request, String affinityKey, long acquireTimeout) {
+        long budget = remainingBudget(request);
+        if (budget <= 0) {
+            deadlineExceeded.increment();
+            return CompletableFuture.failedFuture(
+                    new MlServiceException(HttpStatus.GATEWAY_TIMEOUT, "Время ожидания клиента истекло"));
+        }
+
+        CompletableFuture<Boolean> admission = limiter.acquire(Math.min(acquireTimeout, budget));
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        admission.whenComplete((granted, error) -> {
+            if (error != null) {
+                // ожидание отменено вместе с result
+                return;
+            }
+            if (!granted) {
+                limiterRejected.increment();
+                result.completeExceptionally(new MlServiceException(HttpStatus.SERVICE_UNAVAILABLE, "ML сервис перегружен"));
+                return;
+            }
+            if (result.isDone()) {
+                limiter.onIgnored();
+                return;
+            }
+            CompletableFuture<byte[]> call = dispatch(request, affinityKey);
+            call.whenComplete((value, callError) -> {
+                if (callError == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(unwrap(callError));
+                }
+            });
+            result.whenComplete((value, resultError) -> {
+                if (result.isCancelled()) {
+                    call.cancel(true);
+                }
+            });
+        });
+        // отмена, пока запрос ждёт в очереди, освобождает его место в очереди
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                admission.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<byte[]> dispatch(TryOnRequest request, String affinityKey) {
+        MlReplicaPool.Lease lease = replicaPool.acquire(affinityKey);
+        if (lease == null) {
+            limiter.onIgnored();
+            circuitRejected.increment();
+            return CompletableFuture.failedFuture(
+                    new MlServiceException(HttpStatus.SERVICE_UNAVAILABLE, "ML сервис временно недоступен"));
+        }
+
+        MlReplica replica = lease.replica();
+        CircuitBreaker.Permit permit = lease.permit();
+        long budget = remainingBudget(request);
+        if (budget <= 0) {
+            limiter.onIgnored();
+            permit.onIgnored();
+            deadlineExceeded.increment();
+            return CompletableFuture.failedFuture(
+                    new MlServiceException(HttpStatus.GATEWAY_TIMEOUT, "Время ожидания клиента истекло"));
+        }
+        replica.onStart();
+        long start = System.nanoTime();
+        CompletableFuture<byte[]> call = call(replica, request, budget);
+        requestBytes.record(request.getUploadPhoto().length);
+        call.whenComplete((result, error) -> {
+            long latency = System.nanoTime() - start;
+            Throwable cause = error != null ? unwrap(error) : null;
+            requestTimer(replica, outcome(cause)).record(latency, TimeUnit.NANOSECONDS);
+            if (cause == null) {
+                responseBytes.record(result.length);
+                latencies.record(latency);
+                limiter.onSuccess(latency);
+                replica.onFinish(latency, true);
+                permit.onSuccess();
+            } else if (cause instanceof CancellationException) {
+                cancelledRequests.increment();
+                limiter.onIgnored();
+                replica.onFinish(latency, false);
+                permit.onIgnored();
+            } else if (cause instanceof MlServiceException e
+                    && !e.getStatus().is5xxServerError() && e.getStatus().value() != 429) {
+                limiter.onSuccess(latency);
+                replica.onFinish(latency, true);
+                permit.onSuccess();
+            } else {
+                limiter.onDropped();
+                replica.onFinish(latency, false);
+                permit.onFailure();
+            }
+        });
+        return call;
+    }
+
+    private Timer requestTimer(MlReplica replica, String outcome) {
+        return requestTimers.computeIfAbsent(replica.getUrl() + "|" + outcome, k -> Timer.builder("ml.request")
+                .description("Время вызова ML сервиса")
+                .tag("replica", replica.getUrl())
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+    private static String outcome(Throwable cause) {
+        if (cause == null) {
+            return "success";
+        }
+        if (cause instanceof CancellationException) {
+            return "cancelled";
+        }
+        if (cause instanceof MlServiceException e) {
+            return e.getStatus().value() == HttpStatus.GATEWAY_TIMEOUT.value() ? "timeout"
+                    : e.getStatus().is4xxClientError() ? "client_error" : "server_error";
+        }
+        return "error";
+    }
+
+    private long remainingBudget(TryOnRequest request) {
+        Deadline deadline = request.getDeadline();
+        return deadline != null ? Math.min(readTimeoutMs, deadline.remainingMillis()) : readTimeoutMs;
+    }
+
+    private CompletableFuture<byte[]> call(MlReplica replica, TryOnRequest request, long budgetMs) {
+        String url = replica.getUrl() + "/api/tryon";
+
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        body.part("photo", new ByteArrayResource(request.getUploadPhoto()) {
+            @Override
+            public String getFilename() {
+                return request.getUploadFilename();
+            }
+        });
+        body.part("designId", request.getDesignId());
+        body.part("threshold", String.valueOf(request.getThreshold()));
+        body.part("opacity", String.valueOf(request.getOpacity()));
+
+        logger.info("Отправка запроса в ML сервис: " + url + ", бюджет " + budgetMs + " мс");
+        return mlWebClient.post()
+                .uri(url)
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .header(TIMEOUT_HEADER, String.valueOf(budgetMs))
+                .body(BodyInserters.fromMultipartData(body.build()))
+                .retrieve()
+                .toEntity(byte[].class)
+                .timeout(Duration.ofMillis(budgetMs))
+                .map(this::extractImage)
+                .onErrorMap(this::translateError)
+                .toFuture();
+    }
+
+    private byte[] extractImage(ResponseEntity<byte[]> response) {
+        if (!response.getStatusCode().is2xxSuccessful() || response.getBody() == null) {
+            logger.warning("Получен неуспешный ответ от ML сервиса: " + response.getStatusCode());
+            throw new MlServiceException(response.getStatusCode(), "ML сервис вернул " + response.getStatusCode());
+        }
+
+        MediaType contentType = response.getHeaders().getContentType();
+        if (contentType != null && !"image".equals(contentType.getType())) {
+            throw errorFromBody(response.getBody());
+        }
+
+        logger.info("Получен успешный ответ от ML сервиса");
+        return response.getBody();
+    }
+
+    private Throwable translateError(Throwable error) {
+        if (error instanceof MlServiceException) {
+            return error;
+        }
+        if (error instanceof WebClientResponseException e) {
+            logger.warning("Получен неуспешный ответ от ML сервиса: " + e.getStatusCode());
+            return new MlServiceException(e.getStatusCode(), "ML сервис вернул " + e.getStatusCode(), e);
+        }
+        if (error instanceof TimeoutException) {
+            deadlineExceeded.increment();
+            logger.warning("Превышено время ожидания ML сервиса");
+            return new MlServiceException(HttpStatus.GATEWAY_TIMEOUT, "Превышено время ожидания ML сервиса", error);
+        }
+        if (error instanceof WebClientRequestException) {
+            logger.warning("ML сервис недоступен: " + error.getMessage());
+            return new MlServiceException(HttpStatus.BAD_GATEWAY, "ML сервис недоступен", error);
+        }
+        return new MlServiceException("Ошибка запроса в ML сервис", error);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    private MlServiceException errorFromBody(byte[] body) {
+        String message = "ML сервис не вернул изображение";
+        int code = HttpStatus.BAD_GATEWAY.value();
+        try {
+            JsonNode json = objectMapper.readTree(body);
+            if (json.hasNonNull("message")) {
+                message = json.get("message").asText();
+            }
+            if (json.hasNonNull("code") && json.get("code").asInt() == 422) {
+                code = HttpStatus.UNPROCESSABLE_ENTITY.value();
+            }
+        } catch (Exception e) {
+            logger.warning("Не удалось разобрать ответ ML сервиса: " + e.getMessage());
+        }
+        logger.warning("ML сервис вернул ошибку: " + message);
+        return new MlServiceException(HttpStatusCode.valueOf(code), message);
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.nail_design_api.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+
+public class MlServiceException extends RuntimeException {
+
+    private final HttpStatusCode status;
+
+    public MlServiceException(HttpStatusCode status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public MlServiceException(HttpStatusCode status, String message, Throwable cause) {
+        super(message, cause);
+        this.status = status;
+    }
+
+    public MlServiceException(String message, Throwable cause) {
+        super(message, cause);
+        this.status = HttpStatus.INTERNAL_SERVER_ERROR;
+    }
+
+    public HttpStatusCode getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,282 @@
+package com.example.nail_design_api.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.logging.Logger;
+
+@Component
+public class PhotoNormalizer {
+
+    private static final Logger logger = Logger.getLogger(PhotoNormalizer.class.getName());
+
+    @Value("${tryon.photo.normalize.enabled:true}")
+    private boolean enabled;
+
+    @Value("${tryon.photo.normalize.max-edge:1280}")
+    private int maxEdge;
+
+    @Value("${tryon.photo.normalize.jpeg-quality:0.9}")
+    private float jpegQuality;
+
+    // Декодированное изображение занимает 4 байта на пиксель независимо от размера файла:
+    // маленький PNG или JPEG с заголовком 30000x30000 иначе потребует гигабайты памяти
+    @Value("${tryon.photo.max-pixels:40000000}")
+    private long maxPixels;
+
+    private final DistributionSummary sizeRatio;
+    private final DistributionSummary originalBytes;
+    private final DistributionSummary processedBytes;
+    private final Timer normalizeTimer;
+
+    public PhotoNormalizer(MeterRegistry meterRegistry) {
+        this.sizeRatio = DistributionSummary.builder("tryon.photo.size.ratio")
+                .description("Отношение размера исходного фото к нормализованному")
+                .register(meterRegistry);
+        this.originalBytes = DistributionSummary.builder("tryon.photo.original.bytes")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.processedBytes = DistributionSummary.builder("tryon.photo.processed.bytes")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.normalizeTimer = Timer.builder("tryon.photo.normalize")
+                .register(meterRegistry);
+    }
+
+    public byte[] normalize(byte[] photo) {
+        return normalize(photo, maxEdge);
+    }
+
+    public byte[] normalize(byte[] photo, int targetEdge) {
+        if (!enabled || photo == null || photo.length == 0) {
+            return photo;
+        }
+        checkPixels(photo);
+        return normalizeTimer.record(() -> {
+            byte[] result = doNormalize(photo, targetEdge);
+            originalBytes.record(photo.length);
+            processedBytes.record(result.length);
+            sizeRatio.record((double) photo.length / result.length);
+            return result;
+        });
+    }
+
+    private byte[] doNormalize(byte[] photo, int targetEdge) {
+        try {
+            int orientation = readExifOrientation(photo);
+            BufferedImage source = ImageIO.read(new ByteArrayInputStream(photo));
+            if (source == null) {
+                logger.warning("Неподдерживаемый формат фото, отправляем без изменений");
+                return photo;
+            }
+
+            int width = source.getWidth();
+            int height = source.getHeight();
+            double scale = Math.min(1.0, (double) targetEdge / Math.max(width, height));
+            if (scale == 1.0 && orientation == 1 && !hasMetadata(photo)) {
+                return photo;
+            }
+
+            boolean swap = orientation >= 5 && orientation <= 8;
+            int outWidth = Math.max(1, (int) Math.round((swap ? height : width) * scale));
+            int outHeight = Math.max(1, (int) Math.round((swap ? width : height) * scale));
+
+            AffineTransform transform = AffineTransform.getScaleInstance(
+                    (double) outWidth / (swap ? height : width),
+                    (double) outHeight / (swap ? width : height));
+            transform.concatenate(orientationTransform(orientation, width, height));
+
+            BufferedImage target = new BufferedImage(outWidth, outHeight, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = target.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                // прозрачные области PNG иначе становятся чёрными
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, outWidth, outHeight);
+                g.drawImage(source, transform, null);
+            } finally {
+                g.dispose();
+            }
+
+            byte[] encoded = encodeJpeg(target, jpegQuality);
+            logger.info("Фото нормализовано: " + width + "x" + height + " -> " + outWidth + "x" + outHeight
+                    + ", " + photo.length + " -> " + encoded.length + " байт");
+            return encoded;
+        } catch (IOException | RuntimeException e) {
+            logger.warning("Не удалось нормализовать фото, отправляем без изменений: " + e.getMessage());
+            return photo;
+        }
+    }
+
+    // IllegalArgumentException, если по заголовку изображение больше tryon.photo.max-pixels
+    public void checkPixels(byte[] image) {
+        checkPixels(image, maxPixels);
+    }
+
+    static void checkPixels(byte[] image, long maxPixels) {
+        Dimension size = readDimensions(image);
+        if (size != null && (long) size.width * size.height > maxPixels) {
+            throw new IllegalArgumentException("Изображение " + size.width + "x" + size.height
+                    + " больше допустимых " + maxPixels + " пикселей");
+        }
+    }
+
+    // Размеры из заголовка без декодирования пикселей; null — формат не распознан
+    static Dimension readDimensions(byte[] image) {
+        if (image == null || image.length == 0) {
+            return null;
+        }
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(image))) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // Имя файла для байтов, перекодированных в JPEG: photo.png -> photo.jpg
+    public static String jpegFilename(String filename) {
+        if (filename == null || filename.isBlank()) {
+            return "photo.jpg";
+        }
+        int dot = filename.lastIndexOf('.');
+        int slash = Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\'));
+        return (dot > slash ? filename.substring(0, dot) : filename) + ".jpg";
+    }
+
+    static byte[] encodeJpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    static AffineTransform orientationTransform(int orientation, int w, int h) {
+        return switch (orientation) {
+            case 2 -> new AffineTransform(-1, 0, 0, 1, w, 0);
+            case 3 -> new AffineTransform(-1, 0, 0, -1, w, h);
+            case 4 -> new AffineTransform(1, 0, 0, -1, 0, h);
+            case 5 -> new AffineTransform(0, 1, 1, 0, 0, 0);
+            case 6 -> new AffineTransform(0, 1, -1, 0, h, 0);
+            case 7 -> new AffineTransform(0, -1, -1, 0, h, w);
+            case 8 -> new AffineTransform(0, -1, 1, 0, 0, w);
+            default -> new AffineTransform();
+        };
+    }
+
+    static int readExifOrientation(byte[] jpeg) {
+        if (jpeg.length < 4 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != 0xD8) {
+            return 1;
+        }
+        int pos = 2;
+        while (pos + 4 <= jpeg.length) {
+            if ((jpeg[pos] & 0xFF) != 0xFF) {
+                return 1;
+            }
+            int marker = jpeg[pos + 1] & 0xFF;
+            if (marker == 0xDA || marker == 0xD9) {
+                return 1;
+            }
+            int length = readShort(jpeg, pos + 2, false);
+            int segment = pos + 4;
+            if (marker == 0xE1 && segment + 6 <= jpeg.length
+                    && jpeg[segment] == 'E' && jpeg[segment + 1] == 'x' && jpeg[segment + 2] == 'i'
+                    && jpeg[segment + 3] == 'f' && jpeg[segment + 4] == 0 && jpeg[segment + 5] == 0) {
+                return readTiffOrientation(jpeg, segment + 6, Math.min(jpeg.length, pos + 2 + length));
+            }
+            pos += 2 + length;
+        }
+        return 1;
+    }
+
+    private static int readTiffOrientation(byte[] data, int tiff, int end) {
+        if (tiff + 8 > end) {
+            return 1;
+        }
+        boolean little = data[tiff] == 'I' && data[tiff + 1] == 'I';
+        int ifd = tiff + readInt(data, tiff + 4, little);
+        if (ifd + 2 > end) {
+            return 1;
+        }
+        int entries = readShort(data, ifd, little);
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > end) {
+                return 1;
+            }
+            if (readShort(data, entry, little) == 0x0112) {
+                int value = readShort(data, entry + 8, little);
+                return value >= 1 && value <= 8 ? value : 1;
+            }
+        }
+        return 1;
+    }
+
+    private static boolean hasMetadata(byte[] jpeg) {
+        if (jpeg.length < 4 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != 0xD8) {
+            return true;
+        }
+        int pos = 2;
+        while (pos + 4 <= jpeg.length && (jpeg[pos] & 0xFF) == 0xFF) {
+            int marker = jpeg[pos + 1] & 0xFF;
+            if (marker == 0xDA) {
+                return false;
+            }
+            if ((marker >= 0xE1 && marker <= 0xEF) || marker == 0xFE) {
+                return true;
+            }
+            pos += 2 + readShort(jpeg, pos + 2, false);
+        }
+        return false;
+    }
+
+    private static int readShort(byte[] data, int pos, boolean little) {
+        int a = data[pos] & 0xFF;
+        int b = data[pos + 1] & 0xFF;
+        return little ? (b << 8) | a : (a << 8) | b;
+    }
+
+    private static int readInt(byte[] data, int pos, boolean little) {
+        int hi = readShort(data, pos, little);
+        int lo = readShort(data, pos + 2, little);
+        return little ? (lo << 16) | hi : (hi << 16) | lo;
+    }
+}
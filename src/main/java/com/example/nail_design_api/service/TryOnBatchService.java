@@ -0,0 +1,228 @@
+package com.example.nail_design_api.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+@Service
+public class TryOnBatchService {
+
+    private static final Logger logger = Logger.getLogger(TryOnBatchService.class.getName());
+
+    @Autowired
+    private TryOnService tryOnService;
+
+    @Autowired
+    private TryOnResultCache resultCache;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MasterStatsService masterStatsService;
+
+    @Value("${tryon.batch.concurrency:3}")
+    private int concurrency;
+
+    @Value("${tryon.batch.max-designs:20}")
+    private int maxDesigns;
+
+    @Value("${tryon.batch.pool-size:8}")
+    private int poolSize;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(poolSize, r -> {
+            Thread thread = new Thread(r, "tryon-batch-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    public int getMaxDesigns() {
+        return maxDesigns;
+    }
+
+    public void streamBatch(TryOnRequest base, List<String> designIds, OutputStream out) throws IOException {
+        Batch batch = new Batch(new ExecutorCompletionService<>(executor));
+
+        int submitted = 0;
+        int finished = 0;
+        try {
+            while (submitted < designIds.size() && submitted < concurrency) {
+                submit(batch, base, designIds.get(submitted), submitted);
+                submitted++;
+            }
+
+            while (finished < submitted) {
+                Future<Map<String, Object>> done = batch.completion.take();
+                finished++;
+                if (submitted < designIds.size()) {
+                    submit(batch, base, designIds.get(submitted), submitted);
+                    submitted++;
+                }
+
+                writeLine(out, done.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warning("Пакетная примерка прервана после " + finished + " из " + designIds.size());
+        } catch (ExecutionException e) {
+            throw new IOException("Ошибка пакетной примерки", e.getCause());
+        } finally {
+            // клиент ушёл или пакет прерван: незавершённые вызовы ML сервиса больше не нужны
+            batch.cancel();
+        }
+    }
+
+    private void submit(Batch batch, TryOnRequest base, String designId, int index) {
+        TryOnRequest request = base.forDesign(designId);
+        batch.tasks.add(batch.completion.submit(() -> render(batch, request, index)));
+    }
+    // Двухфазная примерка: сначала превью на уменьшенном фото, затем полноразмерный результат.
+    // Превью не запрашивается, если полный результат уже готов (например, из кэша) или у ML сервиса
+    // нет свободной ёмкости: второй вызов удвоил бы нагрузку ради небольшого выигрыша
+    public void streamProgressive(TryOnRequest request, OutputStream out) throws IOException {
+        CompletableFuture<byte[]> full = tryOnService.tryOnAsync(request);
+        CompletableFuture<byte[]> preview = full.isDone() || !tryOnService.canAffordPreview()
+                ? null
+                : tryOnService.tryOnPreviewAsync(request);
+
+        try {
+            if (preview != null) {
+                try {
+                    CompletableFuture.anyOf(full, preview).join();
+                } catch (CompletionException | CancellationException ignored) {
+                    // исход каждой фазы разбирается ниже
+                }
+
+                if (!full.isDone()) {
+                    Map<String, Object> line = new HashMap<>();
+                    line.put("phase", "preview");
+                    line.put("designId", request.getDesignId());
+                    fillResult(line, request, () -> TryOnService.await(preview), true);
+                    writeLine(out, line);
+                } else {
+                    preview.cancel(true);
+                }
+            }
+
+            Map<String, Object> line = new HashMap<>();
+            line.put("phase", "full");
+            line.put("designId", request.getDesignId());
+            fillResult(line, request, () -> TryOnService.await(full), false);
+            writeLine(out, line);
+        } catch (IOException e) {
+            // клиент ушёл, незавершённые вызовы ML сервиса больше не нужны
+            if (preview != null) {
+                preview.cancel(true);
+            }
+            full.cancel(true);
+            throw e;
+        }
+    }
+
+    private void writeLine(OutputStream out, Map<String, Object> line) throws IOException {
+        out.write(objectMapper.writeValueAsBytes(line));
+        out.write('\n');
+        out.flush();
+    }
+
+    private Map<String, Object> render(Batch batch, TryOnRequest request, int index) {
+        Map<String, Object> line = new HashMap<>();
+        line.put("index", index);
+        line.put("designId", request.getDesignId());
+        fillResult(line, request, () -> TryOnService.await(batch.track(tryOnService.tryOnAsync(request))), false);
+        return line;
+    }
+
+    private void fillResult(Map<String, Object> line, TryOnRequest request, Supplier<byte[]> call, boolean inline) {
+        try {
+            byte[] result = call.get();
+            line.put("status", "DONE");
+            if (!inline) {
+                masterStatsService.recordTryOn(request.getDesignId());
+            }
+            // ссылка выдаётся только на закреплённый результат, иначе картинка идёт в самой строке
+            if (!inline && resultCache.pin(request, result)) {
+                line.put("resultUrl", "/api/tryon/results/" + request.getDesignId() + "/" + request.getCacheKey());
+            } else {
+                line.put("image", Base64.getEncoder().encodeToString(result));
+            }
+        } catch (MlServiceException e) {
+            line.put("status", "FAILED");
+            line.put("code", e.getStatus().value());
+            line.put("error", "Ошибка ML сервиса: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            line.put("status", "FAILED");
+            line.put("code", 400);
+            line.put("error", e.getMessage());
+        } catch (Exception e) {
+            line.put("status", "FAILED");
+            line.put("code", 500);
+            line.put("error", "Ошибка при обработке: " + e.getMessage());
+        }
+    }
+
+    // Задачи и вызовы ML сервиса одного пакета. Ожидание join() прерыванием не снимается,
+    // поэтому отменяются и сами вызовы, а не только задачи пула
+    private static final class Batch {
+
+        final ExecutorCompletionService<Map<String, Object>> completion;
+        final List<Future<Map<String, Object>>> tasks = new ArrayList<>();
+        private final Set<CompletableFuture<byte[]>> renders = ConcurrentHashMap.newKeySet();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+
+        Batch(ExecutorCompletionService<Map<String, Object>> completion) {
+            this.completion = completion;
+        }
+
+        CompletableFuture<byte[]> track(CompletableFuture<byte[]> render) {
+            renders.add(render);
+            if (cancelled.get()) {
+                render.cancel(true);
+            }
+            render.whenComplete((result, error) -> renders.remove(render));
+            return render;
+        }
+
+        void cancel() {
+            cancelled.set(true);
+            tasks.forEach(task -> task.cancel(true));
+            renders.forEach(render -> render.cancel(true));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.nail_design_api.service;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class TryOnJob {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED
+    }
+
+    private final String id = UUID.randomUUID().toString();
+    private final String owner;
+    private final String designId;
+    private final String cacheKey;
+    // поколение кэша примерок дизайна на момент постановки: после замены изображения задача устаревает
+    private final long generation;
+    private final Instant createdAt = Instant.now();
+
+    private volatile TryOnRequest request;
+    private volatile Status status = Status.QUEUED;
+    private volatile byte[] result;
+    private volatile String error;
+    private volatile int errorStatus;
+    private volatile Instant finishedAt;
+
+    private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+
+    public TryOnJob(String owner, TryOnRequest request, long generation) {
+        this.owner = owner;
+        this.request = request;
+        this.designId = request.getDesignId();
+        this.cacheKey = request.getCacheKey();
+        this.generation = generation;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public String getDesignId() {
+        return designId;
+    }
+
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public TryOnRequest getRequest() {
+        return request;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public byte[] getResult() {
+        return result;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public int getErrorStatus() {
+        return errorStatus;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public boolean isFinished() {
+        return status == Status.DONE || status == Status.FAILED;
+    }
+
+    List<SseEmitter> getEmitters() {
+        return emitters;
+    }
+
+    void markRunning() {
+        status = Status.RUNNING;
+    }
+
+    void complete(byte[] result) {
+        this.result = result;
+        this.request = null;
+        this.finishedAt = Instant.now();
+        this.status = Status.DONE;
+    }
+
+    void fail(int errorStatus, String error) {
+        this.errorStatus = errorStatus;
+        this.error = error;
+        this.request = null;
+        this.finishedAt = Instant.now();
+        this.status = Status.FAILED;
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.nail_design_api.service;
+
+import org.springframework.http.HttpStatus;
+
+public class TryOnJobRejectedException extends RuntimeException {
+
+    private final HttpStatus status;
+
+    public TryOnJobRejectedException(HttpStatus status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public HttpStatus getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,287 @@
+package com.example.nail_design_api.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+@Service
+public class TryOnJobService {
+
+    private static final Logger logger = Logger.getLogger(TryOnJobService.class.getName());
+
+    @Autowired
+    private TryOnService tryOnService;
+
+    @Autowired
+    private MasterStatsService masterStatsService;
+
+    @Autowired
+    private TryOnResultCache resultCache;
+
+    @Value("${tryon.jobs.workers:2}")
+    private int workerCount;
+
+    @Value("${tryon.jobs.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Value("${tryon.jobs.per-user-limit:5}")
+    private int perUserLimit;
+
+    @Value("${tryon.jobs.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    @Value("${tryon.jobs.sse-timeout-ms:120000}")
+    private long sseTimeoutMs;
+
+    private final Map<String, TryOnJob> jobs = new ConcurrentHashMap<>();
+    // последняя задача по owner|cacheKey для повторной отправки той же примерки; под lock
+    private final Map<String, TryOnJob> jobsByKey = new HashMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Map<String, ArrayDeque<TryOnJob>> queues = new HashMap<>();
+    private final ArrayDeque<String> owners = new ArrayDeque<>();
+    private final Map<String, Integer> pendingByOwner = new HashMap<>();
+    private int queued;
+
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    @PostConstruct
+    public void start() {
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::workLoop, "tryon-job-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        logger.info("Очередь примерок запущена: воркеров=" + workerCount + ", ёмкость=" + queueCapacity);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        workers.forEach(Thread::interrupt);
+    }
+
+    public TryOnJob submit(String owner, TryOnRequest request) {
+        lock.lock();
+        try {
+            String key = owner + "|" + request.getCacheKey();
+            long generation = resultCache.generation(request.getDesignId());
+            TryOnJob existing = jobsByKey.get(key);
+            if (existing != null
+                    && existing.getStatus() != TryOnJob.Status.FAILED
+                    && existing.getGeneration() == generation) {
+                return existing;
+            }
+
+            if (queued >= queueCapacity) {
+                throw new TryOnJobRejectedException(HttpStatus.SERVICE_UNAVAILABLE, "Очередь примерок переполнена");
+            }
+            int pending = pendingByOwner.getOrDefault(owner, 0);
+            if (pending >= perUserLimit) {
+                throw new TryOnJobRejectedException(HttpStatus.TOO_MANY_REQUESTS,
+                        "Слишком много незавершённых примерок: " + pending);
+            }
+
+            TryOnJob job = new TryOnJob(owner, request, generation);
+            jobs.put(job.getId(), job);
+            jobsByKey.put(key, job);
+
+            ArrayDeque<TryOnJob> queue = queues.computeIfAbsent(owner, k -> new ArrayDeque<>());
+            if (queue.isEmpty()) {
+                owners.addLast(owner);
+            }
+            queue.addLast(job);
+            pendingByOwner.put(owner, pending + 1);
+            queued++;
+            notEmpty.signal();
+
+            logger.info("Задача примерки " + job.getId() + " поставлена в очередь: designId=" + job.getDesignId());
+            return job;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public TryOnJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    public int getQueuePosition(TryOnJob job) {
+        lock.lock();
+        try {
+            ArrayDeque<TryOnJob> own = queues.get(job.getOwner());
+            if (own == null) {
+                return 0;
+            }
+            int index = 0;
+            for (TryOnJob queuedJob : own) {
+                if (queuedJob == job) {
+                    break;
+                }
+                index++;
+            }
+            if (index == own.size()) {
+                return 0;
+            }
+
+            int position = index;
+            for (String owner : owners) {
+                if (owner.equals(job.getOwner())) {
+                    continue;
+                }
+                position += Math.min(queues.get(owner).size(), index + 1);
+            }
+            return position + 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Map<String, Object> describe(TryOnJob job) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("jobId", job.getId());
+        body.put("designId", job.getDesignId());
+        body.put("status", job.getStatus().name());
+        body.put("createdAt", job.getCreatedAt().toString());
+        if (job.getStatus() == TryOnJob.Status.QUEUED) {
+            body.put("position", getQueuePosition(job));
+        }
+        if (job.getStatus() == TryOnJob.Status.DONE) {
+            body.put("resultUrl", "/api/tryon/jobs/" + job.getId() + "/result");
+        }
+        if (job.getStatus() == TryOnJob.Status.FAILED) {
+            body.put("error", job.getError());
+        }
+        if (job.getFinishedAt() != null) {
+            body.put("finishedAt", job.getFinishedAt().toString());
+        }
+        return body;
+    }
+
+    public SseEmitter subscribe(TryOnJob job) {
+        SseEmitter emitter = new SseEmitter(sseTimeoutMs);
+        emitter.onCompletion(() -> job.getEmitters().remove(emitter));
+        emitter.onTimeout(() -> job.getEmitters().remove(emitter));
+        emitter.onError(e -> job.getEmitters().remove(emitter));
+
+        synchronized (job) {
+            try {
+                emitter.send(SseEmitter.event().name("status").data(describe(job)));
+                if (job.isFinished()) {
+                    emitter.complete();
+                } else {
+                    job.getEmitters().add(emitter);
+                }
+            } catch (IOException e) {
+                emitter.completeWithError(e);
+            }
+        }
+        return emitter;
+    }
+
+    @Scheduled(fixedDelayString = "${tryon.jobs.cleanup-interval-ms:60000}")
+    public void removeExpiredJobs() {
+        Instant cutoff = Instant.now().minus(Duration.ofSeconds(ttlSeconds));
+        lock.lock();
+        try {
+            jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt().isBefore(cutoff));
+            jobsByKey.values().removeIf(job -> !jobs.containsKey(job.getId()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void workLoop() {
+        while (running) {
+            TryOnJob job;
+            try {
+                job = take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            run(job);
+        }
+    }
+
+    private TryOnJob take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (queued == 0) {
+                notEmpty.await();
+            }
+            String owner = owners.pollFirst();
+            ArrayDeque<TryOnJob> queue = queues.get(owner);
+            TryOnJob job = queue.pollFirst();
+            if (queue.isEmpty()) {
+                queues.remove(owner);
+            } else {
+                owners.addLast(owner);
+            }
+            queued--;
+            return job;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run(TryOnJob job) {
+        updateStatus(job, job::markRunning);
+        try {
+            byte[] result = tryOnService.tryOn(job.getRequest());
+            updateStatus(job, () -> job.complete(result));
+            masterStatsService.recordTryOn(job.getDesignId());
+            logger.info("Задача примерки " + job.getId() + " выполнена");
+        } catch (MlServiceException e) {
+            updateStatus(job, () -> job.fail(e.getStatus().value(), "Ошибка ML сервиса: " + e.getMessage()));
+            logger.warning("Задача примерки " + job.getId() + " завершилась ошибкой: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            updateStatus(job, () -> job.fail(HttpStatus.BAD_REQUEST.value(), e.getMessage()));
+            logger.warning("Задача примерки " + job.getId() + " отклонена: " + e.getMessage());
+        } catch (Exception e) {
+            updateStatus(job, () -> job.fail(HttpStatus.INTERNAL_SERVER_ERROR.value(), "Ошибка при обработке: " + e.getMessage()));
+            logger.severe("Задача примерки " + job.getId() + " завершилась ошибкой: " + e.getMessage());
+        } finally {
+            lock.lock();
+            try {
+                pendingByOwner.computeIfPresent(job.getOwner(), (k, v) -> v > 1 ? v - 1 : null);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void updateStatus(TryOnJob job, Runnable change) {
+        synchronized (job) {
+            change.run();
+            Map<String, Object> body = describe(job);
+            for (SseEmitter emitter : job.getEmitters()) {
+                try {
+                    emitter.send(SseEmitter.event().name("status").data(body));
+                    if (job.isFinished()) {
+                        emitter.complete();
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    job.getEmitters().remove(emitter);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.example.nail_design_api.service;
+
+public class TryOnPhotoNotFoundException extends RuntimeException {
+
+    public TryOnPhotoNotFoundException(String photoId) {
+        super("Фото не найдено или срок его хранения истёк: " + photoId);
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.nail_design_api.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+// Загруженные фото рук: клиент отправляет фото один раз и дальше ссылается на photoId.
+// Хранятся уже нормализованные байты, объём ограничен, записи истекают по TTL
+@Component
+public class TryOnPhotoStore {
+
+    private static final Logger logger = Logger.getLogger(TryOnPhotoStore.class.getName());
+
+    @Autowired
+    private PhotoNormalizer photoNormalizer;
+
+    @Value("${tryon.photos.ttl-seconds:900}")
+    private long ttlSeconds;
+
+    @Value("${tryon.photos.max-bytes:134217728}")
+    private long maxBytes;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final LinkedHashMap<String, StoredPhoto> photos = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    public TryOnPhotoStore(MeterRegistry meterRegistry) {
+        meterRegistry.gauge("tryon.photos.stored", this, TryOnPhotoStore::size);
+        meterRegistry.gauge("tryon.photos.bytes", this, TryOnPhotoStore::bytes);
+    }
+
+    // IllegalArgumentException — изображение больше tryon.photo.max-pixels; проверяется по заголовку
+    // до декодирования и даже при выключенной нормализации: фото хранится и затем отправляется повторно
+    public StoredPhoto store(byte[] photo, String filename) {
+        photoNormalizer.checkPixels(photo);
+        byte[] normalized = photoNormalizer.normalize(photo);
+        byte[] idBytes = new byte[16];
+        random.nextBytes(idBytes);
+
+        StoredPhoto stored = new StoredPhoto(HexFormat.of().formatHex(idBytes), normalized,
+                normalized != photo ? PhotoNormalizer.jpegFilename(filename) : filename,
+                TryOnRequest.sha256(normalized), Instant.now().plusSeconds(ttlSeconds));
+
+        synchronized (this) {
+            photos.put(stored.getId(), stored);
+            totalBytes += normalized.length;
+            evict();
+        }
+        logger.info("Фото для примерки сохранено: photoId=" + stored.getId() + ", " + normalized.length + " байт");
+        return stored;
+    }
+
+    // Каждое обращение продлевает срок жизни: пока пользователь перебирает дизайны, фото не истекает
+    public synchronized StoredPhoto get(String id) {
+        StoredPhoto stored = id != null ? photos.get(id) : null;
+        if (stored == null) {
+            return null;
+        }
+        if (stored.isExpired()) {
+            remove(id);
+            return null;
+        }
+        stored.expiresAt = Instant.now().plusSeconds(ttlSeconds);
+        return stored;
+    }
+
+    public synchronized boolean remove(String id) {
+        StoredPhoto removed = photos.remove(id);
+        if (removed == null) {
+            return false;
+        }
+        totalBytes -= removed.getPhoto().length;
+        return true;
+    }
+
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    @Scheduled(fixedDelayString = "${tryon.photos.cleanup-interval-ms:60000}")
+    public synchronized void removeExpiredPhotos() {
+        Iterator<StoredPhoto> it = photos.values().iterator();
+        while (it.hasNext()) {
+            StoredPhoto stored = it.next();
+            if (stored.isExpired()) {
+                totalBytes -= stored.getPhoto().length;
+                it.remove();
+            }
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, StoredPhoto>> it = photos.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            totalBytes -= it.next().getValue().getPhoto().length;
+            it.remove();
+        }
+    }
+
+    private synchronized int size() {
+        return photos.size();
+    }
+
+    private synchronized long bytes() {
+        return totalBytes;
+    }
+
+    public static class StoredPhoto {
+
+        private final String id;
+        private final byte[] photo;
+        private final String filename;
+        private final String photoHash;
+        private volatile Instant expiresAt;
+
+        StoredPhoto(String id, byte[] photo, String filename, String photoHash, Instant expiresAt) {
+            this.id = id;
+            this.photo = photo;
+            this.filename = filename;
+            this.photoHash = photoHash;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public byte[] getPhoto() {
+            return photo;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public String getPhotoHash() {
+            return photoHash;
+        }
+
+        public Instant getExpiresAt() {
+            return expiresAt;
+        }
+
+        boolean isExpired() {
+            return Instant.now().isAfter(expiresAt);
+        }
+    }
+}
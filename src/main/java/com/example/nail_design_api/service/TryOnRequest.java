@@ -0,0 +1,151 @@
+package com.example.nail_design_api.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+public class TryOnRequest {
+
+    private final byte[] photo;
+    private final String photoFilename;
+    private final String designId;
+    private final double threshold;
+    private final double opacity;
+
+    private final AtomicReference<byte[]> preparedPhoto;
+    private int previewEdge;
+
+    private String photoHash;
+    private String cacheKey;
+    private volatile Deadline deadline;
+
+    public TryOnRequest(byte[] photo, String photoFilename, String designId, double threshold, double opacity) {
+        this(photo, new AtomicReference<>(), photoFilename, designId, threshold, opacity);
+    }
+
+    // Фото уже нормализовано при загрузке (TryOnPhotoStore), повторная обработка не нужна
+    public static TryOnRequest ofPreparedPhoto(byte[] photo, String photoHash, String photoFilename,
+                                               String designId, double threshold, double opacity) {
+        TryOnRequest request = new TryOnRequest(photo, new AtomicReference<>(photo), photoFilename,
+                designId, threshold, opacity);
+        request.photoHash = photoHash;
+        return request;
+    }
+
+    private TryOnRequest(byte[] photo, AtomicReference<byte[]> preparedPhoto, String photoFilename,
+                         String designId, double threshold, double opacity) {
+        this.photo = photo;
+        this.preparedPhoto = preparedPhoto;
+        this.photoFilename = photoFilename;
+        this.designId = designId;
+        this.threshold = round(threshold);
+        this.opacity = round(opacity);
+    }
+
+    public byte[] getPhoto() {
+        return photo;
+    }
+
+    public byte[] getUploadPhoto() {
+        byte[] prepared = preparedPhoto.get();
+        return prepared != null ? prepared : photo;
+    }
+
+    public byte[] preparePhoto(UnaryOperator<byte[]> preparer) {
+        synchronized (preparedPhoto) {
+            if (preparedPhoto.get() == null) {
+                preparedPhoto.set(preparer.apply(photo));
+            }
+            return preparedPhoto.get();
+        }
+    }
+
+    public String getPhotoFilename() {
+        return photoFilename;
+    }
+
+    // Имя, под которым фото уходит в ML сервис: после нормализации байты уже JPEG
+    public String getUploadFilename() {
+        byte[] prepared = preparedPhoto.get();
+        return prepared != null && prepared != photo ? PhotoNormalizer.jpegFilename(photoFilename) : photoFilename;
+    }
+
+    public String getDesignId() {
+        return designId;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public double getOpacity() {
+        return opacity;
+    }
+
+    public TryOnRequest forDesign(String otherDesignId) {
+        TryOnRequest copy = new TryOnRequest(photo, preparedPhoto, photoFilename, otherDesignId, threshold, opacity);
+        copy.photoHash = getPhotoHash();
+        copy.previewEdge = previewEdge;
+        copy.deadline = deadline;
+        return copy;
+    }
+
+    // Тот же запрос с фото, уменьшенным до edge пикселей по длинной стороне. Результат кэшируется
+    // отдельно от полноразмерного, фото для уменьшения берётся уже нормализованное, если оно есть
+    public TryOnRequest asPreview(int edge) {
+        TryOnRequest copy = new TryOnRequest(getUploadPhoto(), new AtomicReference<>(), getUploadFilename(),
+                designId, threshold, opacity);
+        copy.photoHash = getPhotoHash();
+        copy.previewEdge = edge;
+        copy.deadline = deadline;
+        return copy;
+    }
+
+    public boolean isPreview() {
+        return previewEdge > 0;
+    }
+
+    public int getPreviewEdge() {
+        return previewEdge;
+    }
+
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    public void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+    }
+
+    public synchronized String getPhotoHash() {
+        if (photoHash == null) {
+            photoHash = sha256(photo);
+        }
+        return photoHash;
+    }
+
+    public synchronized String getCacheKey() {
+        if (cacheKey == null) {
+            String raw = getPhotoHash() + "|" + designId + "|" + threshold + "|" + opacity
+                    + (isPreview() ? "|preview" + previewEdge : "");
+            cacheKey = sha256(raw.getBytes(StandardCharsets.UTF_8));
+        }
+        return cacheKey;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+
+    static String sha256(byte[] data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.example.nail_design_api.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.logging.Logger;
+
+@Component
+public class TryOnResultCache {
+
+    private static final Logger logger = Logger.getLogger(TryOnResultCache.class.getName());
+
+    private static final Pattern SAFE_SEGMENT = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    @Value("${tryon.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${tryon.cache.memory-max-bytes:67108864}")
+    private long memoryMaxBytes;
+
+    @Value("${tryon.cache.disk-max-bytes:536870912}")
+    private long diskMaxBytes;
+
+    @Value("${tryon.cache.dir:${java.io.tmpdir}/nail-tryon-cache}")
+    private String cacheDir;
+
+    @Value("${tryon.cache.pin-ttl-seconds:300}")
+    private long pinTtlSeconds;
+
+    @Value("${tryon.cache.pin-max-bytes:33554432}")
+    private long pinMaxBytes;
+
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+    private long diskBytes;
+
+    // Результаты, на которые уже выдана ссылка: живут pin-ttl-seconds независимо от вытеснения из LRU
+    private final LinkedHashMap<String, Pinned> pinned = new LinkedHashMap<>();
+    private long pinnedBytes;
+
+    private Path root;
+
+    // Поколение дизайна растёт при каждой инвалидации: рендер, начатый до изменения дизайна
+    // и завершившийся после, не должен попасть в кэш
+    private final AtomicLong generationCounter = new AtomicLong();
+    private final ConcurrentHashMap<String, Long> generations = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        root = Paths.get(cacheDir);
+        try {
+            Files.createDirectories(root);
+            try (Stream<Path> files = Files.walk(root, 2)) {
+                List<Path> existing = files
+                        .filter(p -> Files.isRegularFile(p) && p.toString().endsWith(".jpg"))
+                        .sorted(Comparator.comparingLong(this::lastModified))
+                        .toList();
+                for (Path file : existing) {
+                    String entry = root.relativize(file).toString().replace('\\', '/');
+                    long size = Files.size(file);
+                    disk.put(entry.substring(0, entry.length() - ".jpg".length()), size);
+                    diskBytes += size;
+                }
+            }
+            evictDisk();
+            logger.info("Кэш примерок: " + disk.size() + " файлов на диске (" + diskBytes + " байт) в " + root);
+        } catch (IOException e) {
+            logger.warning("Дисковый кэш примерок недоступен: " + e.getMessage());
+            root = null;
+        }
+    }
+
+    public byte[] get(TryOnRequest request) {
+        return get(request.getDesignId(), request.getCacheKey());
+    }
+
+    public byte[] get(String designId, String cacheKey) {
+        String entry = entryName(designId, cacheKey);
+        if (entry == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            Pinned pin = pinned.get(entry);
+            if (pin != null && pin.expiresAt() - System.nanoTime() > 0) {
+                return pin.data();
+            }
+            byte[] cached = memory.get(entry);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        Path file = diskFile(entry);
+        if (file == null) {
+            return null;
+        }
+        long generation;
+        synchronized (this) {
+            if (disk.get(entry) == null) {
+                return null;
+            }
+            generation = generation(designId);
+        }
+        try {
+            byte[] data = Files.readAllBytes(file);
+            synchronized (this) {
+                // дизайн сбросили, пока файл читался: прочитанное уже устарело
+                if (generation != generation(designId)) {
+                    return null;
+                }
+                putMemory(entry, data);
+            }
+            return data;
+        } catch (NoSuchFileException e) {
+            synchronized (this) {
+                Long size = disk.remove(entry);
+                if (size != null) {
+                    diskBytes -= size;
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            logger.warning("Ошибка чтения кэша примерки " + entry + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public long generation(String designId) {
+        return designId != null ? generations.getOrDefault(designId, 0L) : 0L;
+    }
+
+    // generation — значение generation(designId), взятое до начала рендера
+    public void put(TryOnRequest request, byte[] result, long generation) {
+        String designId = request.getDesignId();
+        String entry = entryName(designId, request.getCacheKey());
+        if (entry == null || result == null) {
+            return;
+        }
+        synchronized (this) {
+            if (generation < generation(designId)) {
+                logger.fine("Результат примерки устарел после изменения дизайна " + designId + ", в кэш не пишем");
+                return;
+            }
+            putMemory(entry, result);
+        }
+
+        Path file = diskFile(entry);
+        if (file == null || result.length > diskMaxBytes) {
+            return;
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), "tmp_", ".part");
+            Files.write(tmp, result);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            boolean stale;
+            synchronized (this) {
+                stale = generation < generation(designId);
+                if (!stale) {
+                    Long previous = disk.put(entry, (long) result.length);
+                    diskBytes += result.length - (previous != null ? previous : 0);
+                    evictDisk();
+                }
+            }
+            // дизайн изменился, пока файл записывался
+            if (stale) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            logger.warning("Ошибка записи кэша примерки " + entry + ": " + e.getMessage());
+        }
+    }
+
+    // Удерживает результат для ссылки resultUrl из пакетного ответа, чтобы она не вернула 404 из-за
+    // вытеснения до того, как клиент её откроет. false — места нет, результат нужно отдать в самом ответе
+    public synchronized boolean pin(TryOnRequest request, byte[] result) {
+        String entry = entryName(request.getDesignId(), request.getCacheKey());
+        if (entry == null || result == null) {
+            return false;
+        }
+        long now = System.nanoTime();
+        Iterator<Pinned> it = pinned.values().iterator();
+        while (it.hasNext()) {
+            Pinned eldest = it.next();
+            if (eldest.expiresAt() - now > 0) {
+                break;
+            }
+            pinnedBytes -= eldest.data().length;
+            it.remove();
+        }
+
+        Pinned previous = pinned.remove(entry);
+        if (previous != null) {
+            pinnedBytes -= previous.data().length;
+        }
+        if (pinnedBytes + result.length > pinMaxBytes) {
+            return false;
+        }
+        pinned.put(entry, new Pinned(result, now + TimeUnit.SECONDS.toNanos(pinTtlSeconds)));
+        pinnedBytes += result.length;
+        return true;
+    }
+
+    public void invalidateDesign(String designId) {
+        if (!isCacheable(designId)) {
+            return;
+        }
+        String prefix = designId + "/";
+        synchronized (this) {
+            generations.put(designId, generationCounter.incrementAndGet());
+            Iterator<Map.Entry<String, Pinned>> pinnedIt = pinned.entrySet().iterator();
+            while (pinnedIt.hasNext()) {
+                Map.Entry<String, Pinned> e = pinnedIt.next();
+                if (e.getKey().startsWith(prefix)) {
+                    pinnedBytes -= e.getValue().data().length;
+                    pinnedIt.remove();
+                }
+            }
+            Iterator<Map.Entry<String, byte[]>> memoryIt = memory.entrySet().iterator();
+            while (memoryIt.hasNext()) {
+                Map.Entry<String, byte[]> e = memoryIt.next();
+                if (e.getKey().startsWith(prefix)) {
+                    memoryBytes -= e.getValue().length;
+                    memoryIt.remove();
+                }
+            }
+            Iterator<Map.Entry<String, Long>> diskIt = disk.entrySet().iterator();
+            while (diskIt.hasNext()) {
+                Map.Entry<String, Long> e = diskIt.next();
+                if (e.getKey().startsWith(prefix)) {
+                    diskBytes -= e.getValue();
+                    diskIt.remove();
+                }
+            }
+        }
+
+        if (root == null) {
+            return;
+        }
+        Path dir = root.resolve(designId);
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(dir);
+            logger.info("Кэш примерок для дизайна " + designId + " очищен");
+        } catch (IOException e) {
+            logger.warning("Ошибка очистки кэша примерок для дизайна " + designId + ": " + e.getMessage());
+        }
+    }
+
+    public boolean isCacheable(String designId) {
+        return enabled && designId != null && SAFE_SEGMENT.matcher(designId).matches();
+    }
+
+    private String entryName(String designId, String cacheKey) {
+        if (!isCacheable(designId) || cacheKey == null || !SAFE_SEGMENT.matcher(cacheKey).matches()) {
+            return null;
+        }
+        return designId + "/" + cacheKey;
+    }
+
+    private Path diskFile(String entry) {
+        return root != null ? root.resolve(entry + ".jpg") : null;
+    }
+
+    private synchronized void putMemory(String entry, byte[] data) {
+        if (data.length > memoryMaxBytes) {
+            return;
+        }
+        byte[] previous = memory.put(entry, data);
+        memoryBytes += data.length - (previous != null ? previous.length : 0);
+
+        Iterator<Map.Entry<String, byte[]>> it = memory.entrySet().iterator();
+        while (memoryBytes > memoryMaxBytes && it.hasNext()) {
+            memoryBytes -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+
+    private void evictDisk() {
+        Iterator<Map.Entry<String, Long>> it = disk.entrySet().iterator();
+        while (diskBytes > diskMaxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            diskBytes -= eldest.getValue();
+            it.remove();
+            try {
+                Files.deleteIfExists(diskFile(eldest.getKey()));
+            } catch (IOException e) {
+                logger.warning("Не удалось удалить файл кэша " + eldest.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    private record Pinned(byte[] data, long expiresAt) {
+    }
+}
@@ -0,0 +1,347 @@
+package com.example.nail_design_api.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.logging.Logger;
+
+// Перекодирование результата примерки под клиента: размер, качество и формат задаются явно
+// параметрами или выводятся из client hints (Save-Data, ECT, ширина экрана и DPR)
+@Component
+public class TryOnResultEncoder {
+
+    private static final Logger logger = Logger.getLogger(TryOnResultEncoder.class.getName());
+
+    public static final String ACCEPT_CH = "Sec-CH-Width, Sec-CH-Viewport-Width, Sec-CH-DPR, ECT, Save-Data";
+
+    private static final Set<String> SLOW_CONNECTIONS = Set.of("slow-2g", "2g", "3g");
+    private static final int MIN_EDGE = 64;
+    private static final int MAX_EDGE = 4096;
+
+    public enum Format {
+        JPEG("jpeg", MediaType.IMAGE_JPEG),
+        PNG("png", MediaType.IMAGE_PNG);
+
+        private final String imageIoName;
+        private final MediaType mediaType;
+
+        Format(String imageIoName, MediaType mediaType) {
+            this.imageIoName = imageIoName;
+            this.mediaType = mediaType;
+        }
+
+        public MediaType getMediaType() {
+            return mediaType;
+        }
+
+        static Format parse(String value) {
+            return switch (value.trim().toLowerCase()) {
+                case "jpeg", "jpg" -> JPEG;
+                case "png" -> PNG;
+                default -> throw new IllegalArgumentException("Неподдерживаемый формат результата: " + value);
+            };
+        }
+    }
+
+    @Value("${tryon.result.encode.enabled:true}")
+    private boolean enabled;
+
+    @Value("${tryon.result.encode.default-quality:0.85}")
+    private float defaultQuality;
+
+    @Value("${tryon.result.encode.save-data-quality:0.6}")
+    private float saveDataQuality;
+
+    @Value("${tryon.result.encode.save-data-max-edge:720}")
+    private int saveDataMaxEdge;
+
+    @Value("${tryon.result.encode.variant-cache-bytes:33554432}")
+    private long variantCacheBytes;
+
+    private final Map<Format, ArrayBlockingQueue<ImageWriter>> writers = new EnumMap<>(Format.class);
+
+    private final LinkedHashMap<String, Encoded> variants = new LinkedHashMap<>(16, 0.75f, true);
+    private long variantBytes;
+
+    private final Timer encodeTimer;
+    private final DistributionSummary encodedBytes;
+
+    public TryOnResultEncoder(MeterRegistry meterRegistry,
+                              @Value("${tryon.result.encode.pool-size:4}") int poolSize) {
+        for (Format format : Format.values()) {
+            writers.put(format, new ArrayBlockingQueue<>(Math.max(1, poolSize)));
+        }
+        this.encodeTimer = Timer.builder("tryon.result.encode")
+                .description("Перекодирование результата примерки под клиента")
+                .register(meterRegistry);
+        this.encodedBytes = DistributionSummary.builder("tryon.result.encoded.bytes")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    public Options resolve(Integer maxEdge, Float quality, String format, HttpServletRequest request) {
+        Format target = format != null && !format.isBlank() ? Format.parse(format) : Format.JPEG;
+        if (quality != null && (quality <= 0 || quality > 1)) {
+            throw new IllegalArgumentException("Качество должно быть в диапазоне (0, 1]");
+        }
+
+        boolean hinted = false;
+        int edge = maxEdge != null ? clampEdge(maxEdge) : 0;
+        if (maxEdge == null) {
+            int hintWidth = hintedWidth(request);
+            if (hintWidth > 0) {
+                edge = clampEdge(hintWidth);
+                hinted = true;
+            }
+        }
+
+        float q = quality != null ? quality : defaultQuality;
+        if (isConstrained(request)) {
+            hinted = true;
+            edge = edge > 0 ? Math.min(edge, saveDataMaxEdge) : saveDataMaxEdge;
+            if (quality == null) {
+                q = saveDataQuality;
+            }
+        }
+
+        boolean passthrough = maxEdge == null && quality == null && format == null && !hinted;
+        return new Options(edge, q, target, passthrough, hinted);
+    }
+
+    public Encoded encode(byte[] source, Options options) {
+        String sourceHash = TryOnRequest.sha256(source);
+        if (!enabled || options.passthrough) {
+            return new Encoded(source, Format.JPEG.mediaType, etag(sourceHash));
+        }
+
+        String key = sourceHash + "|" + options.key();
+        synchronized (this) {
+            Encoded cached = variants.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        Encoded encoded = encodeTimer.record(() -> doEncode(source, sourceHash, key, options));
+        if (encoded.getBody() != source) {
+            encodedBytes.record(encoded.getBody().length);
+            putVariant(key, encoded);
+        }
+        return encoded;
+    }
+
+    private Encoded doEncode(byte[] source, String sourceHash, String key, Options options) {
+        try {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(source));
+            if (image == null) {
+                return new Encoded(source, Format.JPEG.mediaType, etag(sourceHash));
+            }
+
+            int width = image.getWidth();
+            int height = image.getHeight();
+            double scale = options.maxEdge > 0 ? Math.min(1.0, (double) options.maxEdge / Math.max(width, height)) : 1.0;
+            int outWidth = Math.max(1, (int) Math.round(width * scale));
+            int outHeight = Math.max(1, (int) Math.round(height * scale));
+
+            BufferedImage target = image;
+            if (scale < 1.0 || image.getColorModel().hasAlpha()) {
+                target = new BufferedImage(outWidth, outHeight, BufferedImage.TYPE_INT_RGB);
+                Graphics2D g = target.createGraphics();
+                try {
+                    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                    g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                    g.drawImage(image, 0, 0, outWidth, outHeight, null);
+                } finally {
+                    g.dispose();
+                }
+            }
+
+            byte[] body = write(target, options.format, options.quality);
+            return new Encoded(body, options.format.mediaType, etag(key));
+        } catch (IOException | RuntimeException e) {
+            logger.warning("Не удалось перекодировать результат примерки, отдаём как есть: " + e.getMessage());
+            return new Encoded(source, Format.JPEG.mediaType, etag(sourceHash));
+        }
+    }
+
+    // ImageWriter дорог в создании, поэтому писатели переиспользуются через небольшой пул
+    private byte[] write(BufferedImage image, Format format, float quality) throws IOException {
+        ArrayBlockingQueue<ImageWriter> pool = writers.get(format);
+        ImageWriter writer = pool.poll();
+        if (writer == null) {
+            writer = ImageIO.getImageWritersByFormatName(format.imageIoName).next();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean reusable = false;
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (format == Format.JPEG) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+            reusable = true;
+        } finally {
+            writer.reset();
+            if (!reusable || !pool.offer(writer)) {
+                writer.dispose();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private synchronized void putVariant(String key, Encoded encoded) {
+        int size = encoded.getBody().length;
+        if (size > variantCacheBytes) {
+            return;
+        }
+        Encoded previous = variants.put(key, encoded);
+        variantBytes += size - (previous != null ? previous.getBody().length : 0);
+
+        Iterator<Encoded> it = variants.values().iterator();
+        while (variantBytes > variantCacheBytes && it.hasNext()) {
+            variantBytes -= it.next().getBody().length;
+            it.remove();
+        }
+    }
+
+    private static int hintedWidth(HttpServletRequest request) {
+        if (request == null) {
+            return 0;
+        }
+        int width = parseInt(header(request, "Sec-CH-Width", "Width"));
+        if (width > 0) {
+            return width;
+        }
+        int viewport = parseInt(header(request, "Sec-CH-Viewport-Width", "Viewport-Width"));
+        if (viewport <= 0) {
+            return 0;
+        }
+        double dpr = parseDouble(header(request, "Sec-CH-DPR", "DPR"));
+        return (int) Math.round(viewport * (dpr > 0 ? dpr : 1.0));
+    }
+
+    private static boolean isConstrained(HttpServletRequest request) {
+        if (request == null) {
+            return false;
+        }
+        String saveData = request.getHeader("Save-Data");
+        String ect = request.getHeader("ECT");
+        return (saveData != null && saveData.trim().equalsIgnoreCase("on"))
+                || (ect != null && SLOW_CONNECTIONS.contains(ect.trim().toLowerCase()));
+    }
+
+    private static String header(HttpServletRequest request, String name, String legacyName) {
+        String value = request.getHeader(name);
+        return value != null ? value : request.getHeader(legacyName);
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return value != null ? (int) Math.round(Double.parseDouble(value.trim())) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static double parseDouble(String value) {
+        try {
+            return value != null ? Double.parseDouble(value.trim()) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static int clampEdge(int edge) {
+        return Math.max(MIN_EDGE, Math.min(MAX_EDGE, edge));
+    }
+
+    private static String etag(String key) {
+        return "\"" + TryOnRequest.sha256(key.getBytes(StandardCharsets.UTF_8)).substring(0, 32) + "\"";
+    }
+
+    public static final class Options {
+
+        private final int maxEdge;
+        private final float quality;
+        private final Format format;
+        private final boolean passthrough;
+        private final boolean hinted;
+
+        Options(int maxEdge, float quality, Format format, boolean passthrough, boolean hinted) {
+            this.maxEdge = maxEdge;
+            this.quality = quality;
+            this.format = format;
+            this.passthrough = passthrough;
+            this.hinted = hinted;
+        }
+
+        // Параметры выведены из client hints, ответ должен варьироваться по этим заголовкам
+        public boolean isHinted() {
+            return hinted;
+        }
+
+        public String toQueryString() {
+            if (passthrough) {
+                return "";
+            }
+            return "?format=" + format.name().toLowerCase()
+                    + (maxEdge > 0 ? "&maxEdge=" + maxEdge : "")
+                    + (format == Format.JPEG ? "&quality=" + quality : "");
+        }
+
+        String key() {
+            return format + "|" + maxEdge + "|" + (format == Format.JPEG ? quality : 0f);
+        }
+    }
+
+    public static final class Encoded {
+
+        private final byte[] body;
+        private final MediaType mediaType;
+        private final String etag;
+
+        Encoded(byte[] body, MediaType mediaType, String etag) {
+            this.body = body;
+            this.mediaType = mediaType;
+            this.etag = etag;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public MediaType getMediaType() {
+            return mediaType;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+}
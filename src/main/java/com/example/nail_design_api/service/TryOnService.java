@@ -1,7 +1,17 @@
 package com.example.nail_design_api.service;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 @Service
@@ -9,17 +19,65 @@ public class TryOnService {
 
     private static final Logger logger = Logger.getLogger(TryOnService.class.getName());
 
+    @Autowired
+    private MlServiceClient mlServiceClient;
+
+    @Autowired
+    private TryOnResultCache resultCache;
+
+    @Autowired
+    private PhotoNormalizer photoNormalizer;
+
+    @Autowired
+    private TryOnPhotoStore photoStore;
+
+    @Value("${tryon.preview.max-edge:384}")
+    private int previewMaxEdge;
+
+    @Value("${tryon.preview.timeout-ms:5000}")
+    private long previewTimeoutMs;
+
+    @Value("${tryon.preview.max-load:0.5}")
+    private double previewMaxLoad;
+
+    @Value("${tryon.deadline.default-ms:60000}")
+    private long defaultDeadlineMs;
+
+    @Value("${tryon.deadline.max-ms:120000}")
+    private long maxDeadlineMs;
+
+    private final ConcurrentHashMap<String, InFlightCall> inFlight = new ConcurrentHashMap<>();
+
+    private final Counter coalescedCounter;
+
+    public TryOnService(MeterRegistry meterRegistry) {
+        this.coalescedCounter = Counter.builder("tryon.requests.coalesced")
+                .description("Запросы примерки, присоединённые к уже выполняющемуся вызову ML сервиса")
+                .register(meterRegistry);
+        meterRegistry.gauge("tryon.requests.inflight", inFlight, ConcurrentHashMap::size);
+    }
+
     public boolean processTryOnRequest(MultipartFile photo, String designId) {
         try {
             logger.info("Обработка запроса на примерку: designId=" + designId);
 
-            if (photo == null || photo.isEmpty()) {
-                logger.warning("Получено пустое изображение");
+            if (designId == null || designId.trim().isEmpty()) {
+                logger.warning("Получен пустой ID дизайна");
                 return false;
             }
 
-            if (designId == null || designId.trim().isEmpty()) {
-                logger.warning("Получен пустой ID дизайна");
+            return isValidPhoto(photo);
+        } catch (Exception e) {
+            logger.severe("Ошибка при обработке запроса на примерку: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    public boolean isValidPhoto(MultipartFile photo) {
+        try {
+            if (photo == null || photo.isEmpty()) {
+                logger.warning("Получено пустое изображение");
                 return false;
             }
 
@@ -36,9 +94,174 @@ public class TryOnService {
 
             return true;
         } catch (Exception e) {
-            logger.severe("Ошибка при обработке запроса на примерку: " + e.getMessage());
+            logger.severe("Ошибка при проверке изображения: " + e.getMessage());
             e.printStackTrace();
             return false;
         }
     }
-}
\ No newline at end of file
+
+    // Запрос строится либо из загруженного файла, либо из ранее сохранённого фото (photoId).
+    // Возвращает null, если запрос некорректен
+    public TryOnRequest createRequest(MultipartFile photo, String photoId, String designId,
+                                      double threshold, double opacity) throws IOException {
+        if (photoId == null || photoId.isBlank()) {
+            if (!processTryOnRequest(photo, designId)) {
+                return null;
+            }
+            return new TryOnRequest(photo.getBytes(), photo.getOriginalFilename(), designId, threshold, opacity);
+        }
+
+        if (designId == null || designId.trim().isEmpty()) {
+            logger.warning("Получен пустой ID дизайна");
+            return null;
+        }
+        TryOnPhotoStore.StoredPhoto stored = photoStore.get(photoId);
+        if (stored == null) {
+            throw new TryOnPhotoNotFoundException(photoId);
+        }
+        return TryOnRequest.ofPreparedPhoto(stored.getPhoto(), stored.getPhotoHash(), stored.getFilename(),
+                designId, threshold, opacity);
+    }
+
+    public Deadline resolveDeadline(Long requestedMs) {
+        long budget = requestedMs != null && requestedMs > 0 ? Math.min(requestedMs, maxDeadlineMs) : defaultDeadlineMs;
+        return Deadline.after(budget);
+    }
+
+    public byte[] tryOn(TryOnRequest request) {
+        return await(tryOnAsync(request));
+    }
+
+    // ML сервис приводит любое фото к 640x640, поэтому превью стоит столько же инференса, сколько полный
+    // рендер, и выигрывает только на передаче данных. Отправляем его лишь при свободной ёмкости ML сервиса
+    public boolean canAffordPreview() {
+        return mlServiceClient.hasSpareCapacity(previewMaxLoad);
+    }
+
+    // Быстрый предварительный результат на сильно уменьшенном фото с коротким собственным бюджетом
+    public CompletableFuture<byte[]> tryOnPreviewAsync(TryOnRequest request) {
+        TryOnRequest preview = request.asPreview(previewMaxEdge);
+        Deadline deadline = request.getDeadline();
+        if (deadline == null || deadline.remainingMillis() > previewTimeoutMs) {
+            preview.setDeadline(Deadline.after(previewTimeoutMs));
+        }
+        return tryOnAsync(preview);
+    }
+
+    static byte[] await(CompletableFuture<byte[]> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    public CompletableFuture<byte[]> tryOnAsync(TryOnRequest request) {
+        byte[] cached = resultCache.get(request);
+        if (cached != null) {
+            logger.info("Результат примерки взят из кэша: designId=" + request.getDesignId());
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        // после изменения дизайна новые запросы не присоединяются к уже идущему устаревшему рендеру
+        long generation = resultCache.generation(request.getDesignId());
+        String key = request.getCacheKey() + "|" + generation;
+        InFlightCall call = new InFlightCall();
+        while (true) {
+            InFlightCall existing = inFlight.putIfAbsent(key, call);
+            if (existing == null) {
+                break;
+            }
+            CompletableFuture<byte[]> waiter = existing.attach();
+            if (waiter != null) {
+                coalescedCounter.increment();
+                logger.info("Запрос примерки присоединён к выполняющемуся: designId=" + request.getDesignId());
+                return waiter;
+            }
+            inFlight.remove(key, existing);
+        }
+
+        CompletableFuture<byte[]> waiter = call.attach();
+        call.shared.whenCompleteAsync((result, error) -> {
+            if (error == null) {
+                resultCache.put(request, result, generation);
+            }
+            inFlight.remove(key, call);
+        });
+
+        try {
+            if (request.getDeadline() != null && request.getDeadline().isExpired()) {
+                throw new MlServiceException(HttpStatus.GATEWAY_TIMEOUT, "Время ожидания клиента истекло");
+            }
+            if (request.isPreview()) {
+                request.preparePhoto(photo -> photoNormalizer.normalize(photo, request.getPreviewEdge()));
+            } else {
+                request.preparePhoto(photoNormalizer::normalize);
+            }
+            call.start(mlServiceClient.tryOnAsync(request));
+        } catch (RuntimeException e) {
+            call.start(CompletableFuture.failedFuture(e));
+        }
+        return waiter;
+    }
+
+    // Общий вызов ML сервиса: каждый ожидающий получает свою копию,
+    // сам вызов отменяется только когда отменены все копии
+    private static class InFlightCall {
+
+        private final CompletableFuture<byte[]> shared = new CompletableFuture<>();
+        private CompletableFuture<byte[]> source;
+        private int waiters;
+        private boolean cancelled;
+
+        synchronized CompletableFuture<byte[]> attach() {
+            if (cancelled) {
+                return null;
+            }
+            waiters++;
+            CompletableFuture<byte[]> waiter = shared.copy();
+            waiter.whenComplete((result, error) -> {
+                if (waiter.isCancelled()) {
+                    detach();
+                }
+            });
+            return waiter;
+        }
+
+        void start(CompletableFuture<byte[]> call) {
+            synchronized (this) {
+                source = call;
+                if (cancelled) {
+                    call.cancel(true);
+                }
+            }
+            call.whenComplete((result, error) -> {
+                if (error == null) {
+                    shared.complete(result);
+                } else {
+                    shared.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error);
+                }
+            });
+        }
+
+        private void detach() {
+            CompletableFuture<byte[]> toCancel;
+            synchronized (this) {
+                if (--waiters > 0 || shared.isDone()) {
+                    return;
+                }
+                cancelled = true;
+                toCancel = source;
+            }
+            logger.info("Все ожидающие отменили запрос примерки, отменяем вызов ML сервиса");
+            if (toCancel != null) {
+                toCancel.cancel(true);
+            }
+            shared.cancel(true);
+        }
+    }
+}
@@ -1,19 +1,29 @@
 package com.example.nail_design_api.service;
 
 import com.example.nail_design_api.model.User;
+import com.example.nail_design_api.model.UserSummary;
 import com.example.nail_design_api.repository.UserRepository;
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import java.util.HashSet;
 
 @Service
+@Timed(value = "app.service", histogram = true)
 public class UserService {
 
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
     public User registerUser(String username, String email, String password, User.UserRole role) {
-        if (userRepository.findByUsername(username).isPresent()) {
+        if (userRepository.existsByUsername(username)) {
             throw new RuntimeException("Пользователь с таким именем уже существует");
         }
 
@@ -33,8 +43,19 @@ public class UserService {
                 .orElse(null);
     }
 
+    // Для проверок доступа и владения: без множеств избранного и созданных дизайнов
+    public UserSummary findSummaryByUsername(String username) {
+        return userRepository.findSummaryByUsername(username)
+                .orElse(null);
+    }
+
     public boolean existsByUsername(String username) {
-        return userRepository.findByUsername(username).isPresent();
+        return userRepository.existsByUsername(username);
+    }
+
+    public void addCreatedDesign(String username, String designId) {
+        mongoTemplate.updateFirst(Query.query(Criteria.where("username").is(username)),
+                new Update().addToSet("createdDesignIds", designId), User.class);
     }
 
     public User saveUser(User user) {
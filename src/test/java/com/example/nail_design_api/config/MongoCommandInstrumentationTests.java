@@ -0,0 +1,32 @@
+package com.example.nail_design_api.config;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MongoCommandInstrumentationTests {
+
+	@Test
+	void shapeKeepsOperatorsAndHidesValues() {
+		BsonDocument filter = BsonDocument.parse(
+				"{'createdBy': 'anna', 'colors': {'$in': ['red', 'pink', 'white']}, '$or': [{'a': 1}, {'b': {'$gt': 2}}]}");
+
+		assertEquals(BsonDocument.parse(
+				"{'createdBy': '?', 'colors': {'$in': ['?']}, '$or': [{'a': '?'}, {'b': {'$gt': '?'}}]}").toString(),
+				MongoCommandInstrumentation.shape(filter));
+	}
+
+	@Test
+	void summarizesWinningPlanFromRootToLeaf() {
+		Document plan = new Document("stage", "FETCH")
+				.append("inputStage", new Document("stage", "IXSCAN").append("indexName", "createdBy"));
+
+		assertEquals("FETCH <- IXSCAN createdBy", MongoCommandInstrumentation.summarize(plan));
+		assertEquals("COLLSCAN", MongoCommandInstrumentation.summarize(
+				new Document("queryPlan", new Document("stage", "COLLSCAN")).append("slotBasedPlan", List.of())));
+	}
+}
@@ -0,0 +1,41 @@
+package com.example.nail_design_api.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RequestTimingTests {
+
+	@Test
+	void headerListsOnlyStagesThatRan() {
+		RequestTiming timing = new RequestTiming();
+		timing.add(RequestTiming.Stage.AUTH, TimeUnit.MICROSECONDS.toNanos(400));
+		timing.add(RequestTiming.Stage.DB, TimeUnit.MILLISECONDS.toNanos(2));
+		timing.add(RequestTiming.Stage.DB, TimeUnit.MILLISECONDS.toNanos(3));
+
+		String header = timing.header();
+
+		assertTrue(header.startsWith("auth;dur=0.4, db;dur=5.0;desc=\"2\", total;dur="), header);
+		assertFalse(header.contains("ml;"));
+		assertFalse(header.contains("ser;"));
+	}
+
+	@Test
+	void recordsOnlyWhileBoundToThread() {
+		RequestTiming timing = new RequestTiming();
+		RequestTiming.record(RequestTiming.Stage.SERIALIZATION, System.nanoTime());
+		assertEquals(0, timing.count(RequestTiming.Stage.SERIALIZATION));
+
+		RequestTiming previous = RequestTiming.bind(timing);
+		try {
+			RequestTiming.record(RequestTiming.Stage.SERIALIZATION, System.nanoTime());
+		} finally {
+			RequestTiming.restore(previous);
+		}
+
+		assertEquals(1, timing.count(RequestTiming.Stage.SERIALIZATION));
+		assertNull(RequestTiming.current());
+	}
+}
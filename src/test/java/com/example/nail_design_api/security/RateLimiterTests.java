@@ -0,0 +1,54 @@
+package com.example.nail_design_api.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimiterTests {
+
+	private final RateLimiter limiter = new RateLimiter(new MockEnvironment()
+			.withProperty("ratelimit.tryon.requests-per-minute", "6")
+			.withProperty("ratelimit.tryon.burst", "3"), new SimpleMeterRegistry());
+
+	@Test
+	void allowsBurstThenRejectsWithRetryAfter() {
+		for (int remaining = 2; remaining >= 0; remaining--) {
+			RateLimiter.Decision decision = limiter.tryAcquire(RateLimiter.Group.TRYON, "ip:1");
+			assertTrue(decision.allowed());
+			assertEquals(3, decision.limit());
+			assertEquals(remaining, decision.remaining());
+		}
+
+		RateLimiter.Decision rejected = limiter.tryAcquire(RateLimiter.Group.TRYON, "ip:1");
+		assertFalse(rejected.allowed());
+		assertTrue(rejected.retryAfterSeconds() > 0 && rejected.retryAfterSeconds() <= 10);
+
+		assertTrue(limiter.tryAcquire(RateLimiter.Group.TRYON, "ip:2").allowed());
+	}
+
+	@Test
+	void limitsOnlyExpensiveRoutes() {
+		assertEquals(RateLimiter.Group.TRYON, limiter.groupFor("POST", "/api/tryon/batch"));
+		assertEquals(RateLimiter.Group.AUTH, limiter.groupFor("POST", "/api/auth/login"));
+		assertNull(limiter.groupFor("GET", "/api/tryon/jobs/1"));
+		assertNull(limiter.groupFor("POST", "/api/designs/filter"));
+	}
+
+	@Test
+	void sharesOverflowBucketOnceKeyTableIsFull() {
+		RateLimiter small = new RateLimiter(new MockEnvironment()
+				.withProperty("ratelimit.max-keys", "2")
+				.withProperty("ratelimit.inline-sweep-interval-ms", "60000")
+				.withProperty("ratelimit.tryon.requests-per-minute", "6")
+				.withProperty("ratelimit.tryon.burst", "2"), new SimpleMeterRegistry());
+		assertTrue(small.tryAcquire(RateLimiter.Group.TRYON, "ip:1").allowed());
+		assertTrue(small.tryAcquire(RateLimiter.Group.TRYON, "ip:2").allowed());
+
+		// таблица заполнена, внеочередная очистка ещё не разрешена: новые ключи делят одну корзину
+		assertTrue(small.tryAcquire(RateLimiter.Group.TRYON, "ip:3").allowed());
+		assertTrue(small.tryAcquire(RateLimiter.Group.TRYON, "ip:4").allowed());
+		assertFalse(small.tryAcquire(RateLimiter.Group.TRYON, "ip:5").allowed());
+	}
+}
@@ -0,0 +1,57 @@
+package com.example.nail_design_api.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimiterTests {
+
+	private final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 0.5, 1000, 2);
+
+	@Test
+	void queuesWithoutBlockingAndGrantsOnRelease() {
+		assertTrue(limiter.acquire(1000).join());
+
+		CompletableFuture<Boolean> queued = limiter.acquire(10000);
+		assertFalse(queued.isDone());
+		assertEquals(1, limiter.getQueued());
+
+		limiter.onSuccess(TimeUnit.MILLISECONDS.toNanos(10));
+
+		assertTrue(queued.join());
+		assertEquals(1, limiter.getInFlight());
+	}
+
+	@Test
+	void failsFastWithoutTimeoutOrWhenQueueIsFull() {
+		assertTrue(limiter.acquire(1000).join());
+
+		assertFalse(limiter.acquire(0).join());
+		limiter.acquire(10000);
+		limiter.acquire(10000);
+		assertFalse(limiter.acquire(10000).join());
+	}
+
+	@Test
+	void returnsPermitOfCancelledWaiter() {
+		assertTrue(limiter.acquire(1000).join());
+		CompletableFuture<Boolean> cancelled = limiter.acquire(10000);
+		CompletableFuture<Boolean> next = limiter.acquire(10000);
+		cancelled.cancel(true);
+
+		limiter.onIgnored();
+
+		assertTrue(next.join());
+		assertEquals(1, limiter.getInFlight());
+	}
+
+	@Test
+	void rejectsWaiterAfterTimeout() {
+		assertTrue(limiter.acquire(1000).join());
+
+		assertFalse(limiter.acquire(20).join());
+	}
+}
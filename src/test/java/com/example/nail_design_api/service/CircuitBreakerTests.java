@@ -0,0 +1,61 @@
+package com.example.nail_design_api.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTests {
+
+	private final AtomicLong now = new AtomicLong();
+
+	@Test
+	void callStartedWhileClosedDoesNotFreeHalfOpenPermit() {
+		CircuitBreaker breaker = new CircuitBreaker(10, 2, 0.5, 1000, 1, now::get);
+		CircuitBreaker.Permit cancelled = breaker.tryAcquire();
+		CircuitBreaker.Permit slow = breaker.tryAcquire();
+		breaker.tryAcquire().onFailure();
+		breaker.tryAcquire().onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+		now.addAndGet(1000);
+		CircuitBreaker.Permit probe = breaker.tryAcquire();
+		assertNotNull(probe);
+		assertNull(breaker.tryAcquire());
+
+		// вызов, начатый до открытия, завершается в HALF_OPEN и не должен освобождать пробное место
+		cancelled.onIgnored();
+		slow.onSuccess();
+		assertNull(breaker.tryAcquire());
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+		probe.onSuccess();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	void probeFromEarlierHalfOpenPeriodIsNotCounted() {
+		CircuitBreaker breaker = new CircuitBreaker(10, 1, 0.5, 1000, 2, now::get);
+		breaker.tryAcquire().onFailure();
+
+		now.addAndGet(1000);
+		CircuitBreaker.Permit stale = breaker.tryAcquire();
+		breaker.tryAcquire().onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+		now.addAndGet(1000);
+		CircuitBreaker.Permit first = breaker.tryAcquire();
+		CircuitBreaker.Permit second = breaker.tryAcquire();
+		assertNotNull(first);
+		assertNotNull(second);
+		stale.onIgnored();
+		assertNull(breaker.tryAcquire());
+
+		stale.onFailure();
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		first.onSuccess();
+		second.onSuccess();
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+}
@@ -0,0 +1,132 @@
+package com.example.nail_design_api.service;
+
+import com.example.nail_design_api.model.UserSummary;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class DesignImportServiceTests {
+
+	private final DesignImportService service = new DesignImportService();
+
+	@TempDir
+	Path uploads;
+
+	@Test
+	void parsesQuotedCsvWithSeveralColors() {
+		String csv = "\uFEFFimage,name,description,designType,color\r\n"
+				+ "a.jpg,Роза,\"Нежный, весенний \"\"френч\"\"\",french,pink; white\r\n"
+				+ "\r\n"
+				+ "b.png,Ночь,\"Две\nстроки\",ombre,\n";
+
+		List<DesignImportService.ManifestItem> items = service.parseCsv(csv);
+
+		assertEquals(2, items.size());
+		assertEquals("a.jpg", items.get(0).image);
+		assertEquals("Нежный, весенний \"френч\"", items.get(0).description);
+		assertEquals(List.of("pink", "white"), items.get(0).colors);
+		assertEquals("Две\nстроки", items.get(1).description);
+		assertTrue(items.get(1).colors.isEmpty());
+	}
+
+	@Test
+	void parsesJsonManifestAndValidatesRequiredFields() throws Exception {
+		ReflectionTestUtils.setField(service, "objectMapper", new ObjectMapper());
+		String json = "{\"designs\":[{\"image\":\"a.jpg\",\"name\":\"Роза\",\"description\":\"Френч\",\"colors\":[\"pink\",\"white\"]},"
+				+ "{\"image\":\"b.jpg\",\"name\":\" \"}]}";
+
+		List<DesignImportService.ManifestItem> items = service.parseJson(json);
+
+		assertEquals(List.of("pink", "white"), items.get(0).colors);
+		assertNull(items.get(0).validate());
+		assertNotNull(items.get(1).validate());
+	}
+
+	@Test
+	void rejectsArchiveWithDuplicateImageNames() throws Exception {
+		startImport();
+		byte[] zip = zip("a/x.jpg", jpeg(), "b/x.jpg", jpeg(), "manifest.json", manifest("x.jpg"));
+
+		assertThrows(IllegalArgumentException.class,
+				() -> service.importZip(new ByteArrayInputStream(zip), mock(UserSummary.class)));
+		try (Stream<Path> files = Files.list(uploads)) {
+			assertEquals(0, files.count());
+		}
+	}
+
+	@Test
+	void reportsImageAbovePixelCapWithoutDecodingIt() throws Exception {
+		startImport();
+		byte[] bomb = jpeg();
+		// размеры в сегменте SOF0 подменяются на 30000x30000
+		int pos = 2;
+		while ((bomb[pos + 1] & 0xFF) != 0xC0) {
+			pos += 2 + (((bomb[pos + 2] & 0xFF) << 8) | (bomb[pos + 3] & 0xFF));
+		}
+		bomb[pos + 5] = (byte) (30000 >> 8);
+		bomb[pos + 6] = (byte) 30000;
+		bomb[pos + 7] = (byte) (30000 >> 8);
+		bomb[pos + 8] = (byte) 30000;
+		byte[] zip = zip("x.jpg", bomb, "manifest.json", manifest("x.jpg"));
+
+		DesignImportService.ImportResult result = service.importZip(new ByteArrayInputStream(zip), mock(UserSummary.class));
+
+		assertTrue(result.getDesignIds().isEmpty());
+		assertEquals(1, result.getErrors().size());
+		assertTrue(String.valueOf(result.getErrors().get(0).get("error")).contains("30000x30000"));
+	}
+
+	private void startImport() {
+		PhotoNormalizer normalizer = new PhotoNormalizer(new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(normalizer, "maxPixels", 4_000_000L);
+		ReflectionTestUtils.setField(service, "photoNormalizer", normalizer);
+		ReflectionTestUtils.setField(service, "objectMapper", new ObjectMapper());
+		ReflectionTestUtils.setField(service, "uploadPath", uploads.toString());
+		ReflectionTestUtils.setField(service, "workers", 2);
+		ReflectionTestUtils.setField(service, "batchSize", 100);
+		ReflectionTestUtils.setField(service, "maxDesigns", 10);
+		ReflectionTestUtils.setField(service, "maxEntryBytes", 1024L * 1024);
+		ReflectionTestUtils.setField(service, "thumbnailEdge", 40);
+		service.start();
+	}
+
+	private static byte[] manifest(String image) {
+		return ("[{\"image\":\"" + image + "\",\"name\":\"Роза\",\"description\":\"Френч\",\"colors\":[\"pink\"]}]")
+				.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] jpeg() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB), "jpeg", out);
+		return out.toByteArray();
+	}
+
+	private static byte[] zip(Object... entries) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(out)) {
+			for (int i = 0; i < entries.length; i += 2) {
+				zip.putNextEntry(new ZipEntry((String) entries[i]));
+				zip.write((byte[]) entries[i + 1]);
+				zip.closeEntry();
+			}
+		}
+		return out.toByteArray();
+	}
+}
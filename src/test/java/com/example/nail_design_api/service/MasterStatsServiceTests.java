@@ -0,0 +1,186 @@
+package com.example.nail_design_api.service;
+
+import com.example.nail_design_api.model.Design;
+import com.example.nail_design_api.model.MasterStats;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class MasterStatsServiceTests {
+
+	private MongoTemplate mongoTemplate;
+	private MasterStatsService service;
+
+	@BeforeEach
+	void setUp() {
+		mongoTemplate = mock(MongoTemplate.class);
+		service = new MasterStatsService();
+		ReflectionTestUtils.setField(service, "mongoTemplate", mongoTemplate);
+	}
+
+	@Test
+	void changingTypeAndColorsMovesCounts() {
+		Map<String, Long> deltas = new HashMap<>();
+		MasterStatsService.addDesignDeltas(deltas, "french", List.of("red", "white"), -1);
+		MasterStatsService.addDesignDeltas(deltas, "ombre", List.of("white", "pink"), 1);
+
+		assertEquals(-1L, deltas.get("designsByType.french"));
+		assertEquals(1L, deltas.get("designsByType.ombre"));
+		assertEquals(-1L, deltas.get("designsByColor.red"));
+		assertEquals(0L, deltas.get("designsByColor.white"));
+		assertEquals(1L, deltas.get("designsByColor.pink"));
+	}
+
+	@Test
+	void countsRepeatedColorOncePerDesign() {
+		Map<String, Long> deltas = new HashMap<>();
+		MasterStatsService.addDesignDeltas(deltas, "french", List.of("red", "red"), 1);
+		MasterStatsService.addDesignDeltas(deltas, "french", null, 1);
+
+		assertEquals(2L, deltas.get("designsByType.french"));
+		assertEquals(1L, deltas.get("designsByColor.red"));
+	}
+
+	@Test
+	void escapesDotAndDollarInKeys() {
+		assertEquals("rose_gold_", MasterStatsService.key("rose.gold$"));
+		assertEquals("null", MasterStatsService.key(null));
+
+		Map<String, Long> deltas = new HashMap<>();
+		MasterStatsService.addDesignDeltas(deltas, "$where", List.of("a.b"), 1);
+		assertTrue(deltas.containsKey("designsByType._where"));
+		assertTrue(deltas.containsKey("designsByColor.a_b"));
+	}
+
+	@Test
+	void deltaUpdateSkipsZerosAndUnsetsRemovedDesigns() {
+		Map<String, Long> deltas = new HashMap<>();
+		deltas.put("designsByColor.white", 0L);
+		deltas.put("totalDesigns", -1L);
+
+		Document update = MasterStatsService.deltaUpdate(deltas, List.of("d1")).getUpdateObject();
+
+		Document inc = update.get("$inc", Document.class);
+		assertEquals(-1L, inc.get("totalDesigns"));
+		assertEquals(1, inc.get("revision"));
+		assertFalse(inc.containsKey("designsByColor.white"));
+		Document unset = update.get("$unset", Document.class);
+		assertTrue(unset.containsKey("favoritesByDesign.d1"));
+		assertTrue(unset.containsKey("tryOnsByDesign.d1"));
+	}
+
+	@Test
+	void deltaUpdateIsEmptyWhenNothingChanged() {
+		assertNull(MasterStatsService.deltaUpdate(Map.of("designsByType.french", 0L), List.of()));
+	}
+
+	@Test
+	void applyUpsertsSoDeltasForMissingDocumentAreKept() {
+		service.onFavoriteChanged("d1", 1);
+		verify(mongoTemplate, never()).upsert(any(Query.class), any(Update.class), eq(MasterStats.class));
+
+		service.onDesignChanged("anna", "french", List.of("red"), "ombre", List.of("red"));
+
+		ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+		ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+		verify(mongoTemplate).upsert(query.capture(), update.capture(), eq(MasterStats.class));
+		assertEquals("anna", query.getValue().getQueryObject().get("_id"));
+		Document inc = update.getValue().getUpdateObject().get("$inc", Document.class);
+		assertEquals(-1L, inc.get("designsByType.french"));
+		assertEquals(1L, inc.get("designsByType.ombre"));
+		assertFalse(inc.containsKey("designsByColor.red"));
+	}
+
+	@Test
+	void applyIgnoresNoOpChange() {
+		service.onDesignChanged("anna", "french", List.of("red"), "french", List.of("red"));
+		service.onDesignChanged(null, "french", List.of("red"), "ombre", List.of("red"));
+
+		verifyNoInteractions(mongoTemplate);
+	}
+
+	@Test
+	void positiveDropsZeroAndNegativeCounts() {
+		Map<String, Long> counts = new HashMap<>();
+		counts.put("red", 2L);
+		counts.put("white", 0L);
+		counts.put("pink", -1L);
+		counts.put("blue", null);
+
+		assertEquals(Map.of("red", 2L), MasterStatsService.positive(counts));
+		assertEquals(2L, MasterStatsService.sum(Map.of("red", 2L, "pink", -1L)));
+		assertTrue(MasterStatsService.positive(null).isEmpty());
+		assertEquals(0L, MasterStatsService.sum(null));
+	}
+
+	@Test
+	void keepsTryOnsRecordedWhileFlushing() throws Exception {
+		Design design = new Design();
+		design.setId("d1");
+		design.setCreatedBy("anna");
+		when(mongoTemplate.find(any(Query.class), eq(Design.class))).thenReturn(List.of(design));
+		AtomicLong flushed = new AtomicLong();
+		BulkOperations bulk = mock(BulkOperations.class);
+		when(mongoTemplate.bulkOps(eq(BulkOperations.BulkMode.UNORDERED), eq(MasterStats.class))).thenReturn(bulk);
+		when(bulk.upsert(any(Query.class), any(Update.class))).thenAnswer(invocation -> {
+			Document inc = invocation.getArgument(1, Update.class).getUpdateObject().get("$inc", Document.class);
+			flushed.addAndGet(((Number) inc.get("tryOnsByDesign.d1")).longValue());
+			return bulk;
+		});
+
+		int threads = 4;
+		int perThread = 20_000;
+		CountDownLatch start = new CountDownLatch(1);
+		AtomicBoolean recording = new AtomicBoolean(true);
+		List<Thread> writers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			Thread writer = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < perThread; i++) {
+					service.recordTryOn("d1");
+				}
+			});
+			writer.start();
+			writers.add(writer);
+		}
+
+		start.countDown();
+		Thread flusher = new Thread(() -> {
+			while (recording.get()) {
+				service.flushTryOns();
+			}
+		});
+		flusher.start();
+		for (Thread writer : writers) {
+			writer.join();
+		}
+		recording.set(false);
+		flusher.join();
+		service.flushTryOns();
+
+		assertEquals((long) threads * perThread, flushed.get());
+	}
+}
@@ -0,0 +1,123 @@
+package com.example.nail_design_api.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MlReplicaPoolTests {
+
+	private static final int KEYS = 2000;
+
+	@Test
+	void keepsAffinityForUnaffectedKeysWhenReplicaAdded() {
+		Map<String, String> before = assignments(pool(urls(4)));
+		Map<String, String> after = assignments(pool(urls(5)));
+
+		int moved = 0;
+		for (String key : before.keySet()) {
+			if (!before.get(key).equals(after.get(key))) {
+				moved++;
+				assertEquals("http://ml-4", after.get(key), "ключ переехал не на новую реплику");
+			}
+		}
+		// в среднем на новую реплику уходит 1/5 ключей
+		assertTrue(moved > KEYS / 10 && moved < KEYS * 3 / 10, "перемещено " + moved);
+	}
+
+	@Test
+	void keepsAffinityForUnaffectedKeysWhenReplicaRemoved() {
+		Map<String, String> before = assignments(pool(urls(4)));
+		Map<String, String> after = assignments(pool(urls(4).subList(0, 3)));
+
+		for (String key : before.keySet()) {
+			if (!before.get(key).equals("http://ml-3")) {
+				assertEquals(before.get(key), after.get(key));
+			}
+		}
+	}
+
+	@Test
+	void spillsOverWhenPreferredReplicaIsAboveLoadBound() {
+		MlReplicaPool pool = pool(urls(2));
+		MlReplica preferred = acquire(pool, "photo-1");
+		MlReplica other = pool.getReplicas().get(0) == preferred ? pool.getReplicas().get(1) : pool.getReplicas().get(0);
+
+		// граница ceil(1.25 * (3 + 1) / 2) = 3: у предпочтительной реплики уже три запроса
+		preferred.onStart();
+		preferred.onStart();
+		preferred.onStart();
+
+		assertSame(other, acquire(pool, "photo-1"));
+
+		preferred.onFinish(0, false);
+		preferred.onFinish(0, false);
+		assertSame(preferred, acquire(pool, "photo-1"));
+	}
+
+	@Test
+	void skipsUnhealthyAndOpenReplicas() {
+		MlReplicaPool pool = pool(urls(3));
+		MlReplica preferred = acquire(pool, "photo-1");
+
+		preferred.setHealthy(false);
+		MlReplica fallback = acquire(pool, "photo-1");
+		assertNotNull(fallback);
+		assertNotSame(preferred, fallback);
+
+		for (int i = 0; i < 3; i++) {
+			fallback.getCircuitBreaker().tryAcquire().onFailure();
+		}
+		assertEquals(CircuitBreaker.State.OPEN, fallback.getCircuitBreaker().getState());
+		MlReplica last = acquire(pool, "photo-1");
+		assertNotNull(last);
+		assertNotSame(preferred, last);
+		assertNotSame(fallback, last);
+
+		last.setHealthy(false);
+		assertNull(acquire(pool, "photo-1"));
+	}
+
+	@Test
+	void prefersLowerLatencyWithoutAffinity() {
+		MlReplicaPool pool = pool(urls(2));
+		MlReplica slow = pool.getReplicas().get(0);
+		MlReplica fast = pool.getReplicas().get(1);
+		slow.onStart();
+		slow.onFinish(TimeUnit.MILLISECONDS.toNanos(900), true);
+		fast.onStart();
+		fast.onFinish(TimeUnit.MILLISECONDS.toNanos(100), true);
+
+		assertSame(fast, acquire(pool, null));
+	}
+
+	private static MlReplica acquire(MlReplicaPool pool, String key) {
+		MlReplicaPool.Lease lease = pool.acquire(key);
+		return lease != null ? lease.replica() : null;
+	}
+
+	private static MlReplicaPool pool(List<String> urls) {
+		return new MlReplicaPool(urls, url -> new CircuitBreaker(10, 3, 0.5, 60000, 1), 1.25);
+	}
+
+	private static List<String> urls(int count) {
+		List<String> urls = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			urls.add("http://ml-" + i);
+		}
+		return urls;
+	}
+
+	private static Map<String, String> assignments(MlReplicaPool pool) {
+		Map<String, String> assignments = new HashMap<>();
+		for (int i = 0; i < KEYS; i++) {
+			assignments.put("photo-" + i, acquire(pool, "photo-" + i).getUrl());
+		}
+		return assignments;
+	}
+}
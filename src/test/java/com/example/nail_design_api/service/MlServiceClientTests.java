@@ -0,0 +1,110 @@
+package com.example.nail_design_api.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MlServiceClientTests {
+
+	private static final byte[] IMAGE = {(byte) 0xFF, (byte) 0xD8, 1, 2, 3};
+
+	private HttpServer stub;
+	private final AtomicInteger hits = new AtomicInteger();
+	private volatile int status = 200;
+	private volatile String contentType = "image/jpeg";
+	private volatile byte[] body = IMAGE;
+
+	private MlServiceClient client;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		stub.createContext("/api/tryon", exchange -> {
+			hits.incrementAndGet();
+			exchange.getRequestBody().readAllBytes();
+			exchange.getResponseHeaders().add("Content-Type", contentType);
+			exchange.sendResponseHeaders(status, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		stub.start();
+
+		client = new MlServiceClient(new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(client, "mlServiceUrl", "http://127.0.0.1:" + stub.getAddress().getPort());
+		ReflectionTestUtils.setField(client, "mlWebClient", WebClient.create());
+		ReflectionTestUtils.setField(client, "readTimeoutMs", 2000L);
+		ReflectionTestUtils.setField(client, "objectMapper", new ObjectMapper());
+		ReflectionTestUtils.setField(client, "initialLimit", 4);
+		ReflectionTestUtils.setField(client, "minLimit", 1);
+		ReflectionTestUtils.setField(client, "maxLimit", 8);
+		ReflectionTestUtils.setField(client, "backoffRatio", 0.5);
+		ReflectionTestUtils.setField(client, "latencyThresholdMs", 1000L);
+		ReflectionTestUtils.setField(client, "acquireTimeoutMs", 0L);
+		ReflectionTestUtils.setField(client, "breakerWindowSize", 10);
+		ReflectionTestUtils.setField(client, "breakerMinimumCalls", 3);
+		ReflectionTestUtils.setField(client, "breakerFailureRate", 0.5);
+		ReflectionTestUtils.setField(client, "breakerOpenDurationMs", 60000L);
+		ReflectionTestUtils.setField(client, "breakerHalfOpenCalls", 1);
+		client.init();
+	}
+
+	@AfterEach
+	void tearDown() {
+		stub.stop(0);
+		client.shutdown();
+	}
+
+	@Test
+	void returnsImageFromMlService() {
+		assertArrayEquals(IMAGE, client.tryOn(request()));
+		assertEquals(1, hits.get());
+	}
+
+	@Test
+	void mapsJsonErrorBodyToUnprocessableEntity() {
+		contentType = "application/json";
+		body = "{\"status\":\"error\",\"code\":422,\"message\":\"no nails\"}".getBytes(StandardCharsets.UTF_8);
+
+		MlServiceException e = assertThrows(MlServiceException.class, () -> client.tryOn(request()));
+		assertEquals(422, e.getStatus().value());
+	}
+
+	@Test
+	void opensCircuitAfterRepeatedFailuresAndFailsFast() {
+		status = 500;
+		for (int i = 0; i < 3; i++) {
+			assertThrows(MlServiceException.class, () -> client.tryOn(request()));
+		}
+		assertEquals(3, hits.get());
+
+		status = 200;
+		MlServiceException e = assertThrows(MlServiceException.class, () -> client.tryOn(request()));
+		assertEquals(503, e.getStatus().value());
+		assertEquals(3, hits.get());
+	}
+
+	@Test
+	void skipsCallWhenDeadlineAlreadyExpired() {
+		TryOnRequest request = request();
+		request.setDeadline(Deadline.after(0));
+
+		MlServiceException e = assertThrows(MlServiceException.class, () -> client.tryOn(request));
+		assertEquals(504, e.getStatus().value());
+		assertEquals(0, hits.get());
+	}
+
+	private static TryOnRequest request() {
+		return new TryOnRequest(IMAGE, "hand.jpg", "design1", 0.4, 0.9);
+	}
+}
@@ -0,0 +1,137 @@
+package com.example.nail_design_api.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PhotoNormalizerTests {
+
+	private PhotoNormalizer normalizer;
+
+	@BeforeEach
+	void setUp() {
+		normalizer = new PhotoNormalizer(new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(normalizer, "enabled", true);
+		ReflectionTestUtils.setField(normalizer, "maxEdge", 400);
+		ReflectionTestUtils.setField(normalizer, "jpegQuality", 0.9f);
+		ReflectionTestUtils.setField(normalizer, "maxPixels", 4_000_000L);
+	}
+
+	@Test
+	void rotatesAndDownscalesExifOrientedPhoto() throws Exception {
+		byte[] photo = withOrientation(jpeg(800, 600), 6);
+		assertEquals(6, PhotoNormalizer.readExifOrientation(photo));
+
+		byte[] normalized = normalizer.normalize(photo);
+		BufferedImage result = ImageIO.read(new ByteArrayInputStream(normalized));
+
+		assertEquals(300, result.getWidth());
+		assertEquals(400, result.getHeight());
+		assertEquals(1, PhotoNormalizer.readExifOrientation(normalized));
+	}
+
+	@Test
+	void keepsSmallPhotoWithoutMetadataUntouched() throws Exception {
+		byte[] photo = jpeg(200, 100);
+
+		assertSame(photo, normalizer.normalize(photo));
+	}
+
+	@Test
+	void passesThroughUnreadableData() {
+		byte[] garbage = {1, 2, 3, 4, 5};
+
+		assertSame(garbage, normalizer.normalize(garbage));
+	}
+
+	@Test
+	void flattensTransparentPngOntoWhite() throws Exception {
+		BufferedImage image = new BufferedImage(800, 600, BufferedImage.TYPE_INT_ARGB);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", out);
+
+		BufferedImage result = ImageIO.read(new ByteArrayInputStream(normalizer.normalize(out.toByteArray())));
+
+		assertTrue((result.getRGB(10, 10) & 0xFF) > 240);
+	}
+
+	@Test
+	void rejectsHeaderClaimingHugeDimensionsBeforeDecoding() throws Exception {
+		byte[] bomb = withDimensions(jpeg(16, 16), 30000, 30000);
+		assertEquals(30000, PhotoNormalizer.readDimensions(bomb).width);
+
+		assertThrows(IllegalArgumentException.class, () -> normalizer.normalize(bomb));
+		assertThrows(IllegalArgumentException.class, () -> normalizer.checkPixels(bomb));
+		assertDoesNotThrow(() -> normalizer.checkPixels(jpeg(2000, 2000)));
+		assertDoesNotThrow(() -> normalizer.checkPixels(new byte[]{1, 2, 3}));
+	}
+
+	@Test
+	void renamesReencodedPhotoToJpg() {
+		assertEquals("hand.jpg", PhotoNormalizer.jpegFilename("hand.png"));
+		assertEquals("my.photos/hand.jpg", PhotoNormalizer.jpegFilename("my.photos/hand"));
+		assertEquals("photo.jpg", PhotoNormalizer.jpegFilename(null));
+	}
+
+	private static byte[] jpeg(int width, int height) throws Exception {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpeg", out);
+		return stripApp0(out.toByteArray());
+	}
+
+	// Подменяет размеры в сегменте SOF0, не трогая сжатые данные
+	private static byte[] withDimensions(byte[] jpeg, int width, int height) {
+		byte[] patched = jpeg.clone();
+		int pos = 2;
+		while ((patched[pos + 1] & 0xFF) != 0xC0) {
+			pos += 2 + (((patched[pos + 2] & 0xFF) << 8) | (patched[pos + 3] & 0xFF));
+		}
+		patched[pos + 5] = (byte) (height >> 8);
+		patched[pos + 6] = (byte) height;
+		patched[pos + 7] = (byte) (width >> 8);
+		patched[pos + 8] = (byte) width;
+		return patched;
+	}
+
+	private static byte[] stripApp0(byte[] jpeg) {
+		if ((jpeg[2] & 0xFF) != 0xFF || (jpeg[3] & 0xFF) != 0xE0) {
+			return jpeg;
+		}
+		int length = ((jpeg[4] & 0xFF) << 8) | (jpeg[5] & 0xFF);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(jpeg, 0, 2);
+		out.write(jpeg, 4 + length, jpeg.length - 4 - length);
+		return out.toByteArray();
+	}
+
+	private static byte[] withOrientation(byte[] jpeg, int orientation) {
+		byte[] tiff = {
+				'M', 'M', 0, 42, 0, 0, 0, 8,
+				0, 1,
+				0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+				0, 0, 0, 0
+		};
+		byte[] exif = {'E', 'x', 'i', 'f', 0, 0};
+		int length = 2 + exif.length + tiff.length;
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(jpeg, 0, 2);
+		out.write(0xFF);
+		out.write(0xE1);
+		out.write(length >> 8);
+		out.write(length & 0xFF);
+		out.write(exif, 0, exif.length);
+		out.write(tiff, 0, tiff.length);
+		out.write(jpeg, 2, jpeg.length - 2);
+		return out.toByteArray();
+	}
+}
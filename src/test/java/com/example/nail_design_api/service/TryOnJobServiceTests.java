@@ -0,0 +1,49 @@
+package com.example.nail_design_api.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TryOnJobServiceTests {
+
+	private TryOnResultCache cache;
+	private TryOnJobService service;
+
+	@BeforeEach
+	void setUp() {
+		cache = new TryOnResultCache();
+		ReflectionTestUtils.setField(cache, "enabled", true);
+
+		// воркеры не запускаются: задачи остаются в очереди
+		service = new TryOnJobService();
+		ReflectionTestUtils.setField(service, "resultCache", cache);
+		ReflectionTestUtils.setField(service, "queueCapacity", 10);
+		ReflectionTestUtils.setField(service, "perUserLimit", 5);
+	}
+
+	@Test
+	void returnsExistingJobForSameOwnerAndRequest() {
+		TryOnJob first = service.submit("anna", request("design1"));
+
+		assertSame(first, service.submit("anna", request("design1")));
+		assertNotSame(first, service.submit("boris", request("design1")));
+		assertNotSame(first, service.submit("anna", request("design2")));
+	}
+
+	@Test
+	void startsNewJobAfterDesignInvalidated() {
+		TryOnJob first = service.submit("anna", request("design1"));
+
+		cache.invalidateDesign("design1");
+		TryOnJob second = service.submit("anna", request("design1"));
+
+		assertNotSame(first, second);
+		assertSame(second, service.submit("anna", request("design1")));
+	}
+
+	private static TryOnRequest request(String designId) {
+		return new TryOnRequest(new byte[]{1, 2, 3}, "photo.jpg", designId, 0.4, 0.9);
+	}
+}
@@ -0,0 +1,63 @@
+package com.example.nail_design_api.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TryOnResultCacheTests {
+
+	@TempDir
+	Path dir;
+
+	private TryOnResultCache cache;
+
+	@BeforeEach
+	void setUp() {
+		cache = new TryOnResultCache();
+		ReflectionTestUtils.setField(cache, "enabled", true);
+		ReflectionTestUtils.setField(cache, "memoryMaxBytes", 1024L * 1024);
+		ReflectionTestUtils.setField(cache, "diskMaxBytes", 1024L * 1024);
+		ReflectionTestUtils.setField(cache, "cacheDir", dir.toString());
+		ReflectionTestUtils.setField(cache, "pinTtlSeconds", 60L);
+		ReflectionTestUtils.setField(cache, "pinMaxBytes", 4L);
+		cache.init();
+	}
+
+	@Test
+	void dropsRenderStartedBeforeInvalidation() {
+		TryOnRequest request = new TryOnRequest(new byte[]{1, 2, 3}, "photo.jpg", "design1", 0.4, 0.9);
+		long generation = cache.generation("design1");
+
+		cache.invalidateDesign("design1");
+		cache.put(request, new byte[]{9}, generation);
+
+		assertNull(cache.get(request));
+	}
+
+	@Test
+	void keepsRenderStartedAfterInvalidation() {
+		TryOnRequest request = new TryOnRequest(new byte[]{1, 2, 3}, "photo.jpg", "design1", 0.4, 0.9);
+		cache.invalidateDesign("design1");
+
+		cache.put(request, new byte[]{9}, cache.generation("design1"));
+
+		assertArrayEquals(new byte[]{9}, cache.get(request));
+	}
+
+	@Test
+	void servesPinnedResultWithoutCachingIt() {
+		TryOnRequest request = new TryOnRequest(new byte[]{1, 2, 3}, "photo.jpg", "design1", 0.4, 0.9);
+
+		assertTrue(cache.pin(request, new byte[]{7, 7}));
+		assertFalse(cache.pin(request.forDesign("design2"), new byte[]{1, 2, 3}));
+
+		assertArrayEquals(new byte[]{7, 7}, cache.get(request));
+		cache.invalidateDesign("design1");
+		assertNull(cache.get(request));
+	}
+}
@@ -0,0 +1,75 @@
+package com.example.nail_design_api.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TryOnResultEncoderTests {
+
+	private TryOnResultEncoder encoder;
+
+	@BeforeEach
+	void setUp() {
+		encoder = new TryOnResultEncoder(new SimpleMeterRegistry(), 2);
+		ReflectionTestUtils.setField(encoder, "enabled", true);
+		ReflectionTestUtils.setField(encoder, "defaultQuality", 0.85f);
+		ReflectionTestUtils.setField(encoder, "saveDataQuality", 0.6f);
+		ReflectionTestUtils.setField(encoder, "saveDataMaxEdge", 300);
+		ReflectionTestUtils.setField(encoder, "variantCacheBytes", 1024L * 1024);
+	}
+
+	@Test
+	void passesResultThroughWhenNothingRequested() throws Exception {
+		byte[] source = jpeg(800, 600);
+		TryOnResultEncoder.Options options = encoder.resolve(null, null, null, new MockHttpServletRequest());
+
+		TryOnResultEncoder.Encoded encoded = encoder.encode(source, options);
+
+		assertSame(source, encoded.getBody());
+		assertFalse(options.isHinted());
+	}
+
+	@Test
+	void downscalesForSaveDataClientsWithStableEtag() throws Exception {
+		byte[] source = jpeg(800, 600);
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader("Save-Data", "on");
+		TryOnResultEncoder.Options options = encoder.resolve(null, null, null, request);
+
+		TryOnResultEncoder.Encoded first = encoder.encode(source, options);
+		TryOnResultEncoder.Encoded second = encoder.encode(source, options);
+
+		BufferedImage result = ImageIO.read(new ByteArrayInputStream(first.getBody()));
+		assertEquals(300, result.getWidth());
+		assertEquals(225, result.getHeight());
+		assertTrue(options.isHinted());
+		assertEquals(first.getEtag(), second.getEtag());
+	}
+
+	@Test
+	void encodesPngOnRequest() throws Exception {
+		TryOnResultEncoder.Options options = encoder.resolve(200, null, "png", null);
+
+		TryOnResultEncoder.Encoded encoded = encoder.encode(jpeg(400, 400), options);
+
+		assertEquals(MediaType.IMAGE_PNG, encoded.getMediaType());
+		assertEquals(200, ImageIO.read(new ByteArrayInputStream(encoded.getBody())).getWidth());
+		assertThrows(IllegalArgumentException.class, () -> encoder.resolve(null, null, "tiff", null));
+	}
+
+	private static byte[] jpeg(int width, int height) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "jpg", out);
+		return out.toByteArray();
+	}
+}